@@ -0,0 +1,126 @@
+/*
+ * Copyright (C) 2015 The Tesla OS
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tesla.setupwizard.benchmarks;
+
+import com.tesla.setupwizard.util.TimeZoneList;
+
+import org.kxml2.io.KXmlParser;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parse, sort and lookup of the timezone list, run on timezones.xml from the app.
+ * Throughput and sample time (for p99) are both reported, run with -prof gc for
+ * the allocation rate.
+ */
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class TimeZoneListBenchmark {
+
+    // Fixed, so the offsets and the sort order don't depend on the day it runs
+    private static final long DATE = 1451606400000L; // 2016-01-01T00:00:00Z
+
+    private byte[] mXml;
+    private List<HashMap<String, Object>> mParsed;
+
+    @Setup
+    public void setUp() throws IOException, XmlPullParserException {
+        mXml = readResource("/timezones.xml");
+        mParsed = parse();
+    }
+
+    @State(Scope.Benchmark)
+    public static class LookupState {
+        // First and last row of the file, one in the middle and one that isn't listed
+        @Param({ "Pacific/Majuro", "Europe/London", "Pacific/Tongatapu", "America/Nowhere" })
+        public String mLookupId;
+
+        private List<HashMap<String, Object>> mSorted;
+        private TimeZone mLookupZone;
+
+        @Setup
+        public void setUp(TimeZoneListBenchmark benchmark) {
+            mSorted = benchmark.sort();
+            mLookupZone = TimeZone.getTimeZone(mLookupId);
+        }
+    }
+
+    @Benchmark
+    public List<HashMap<String, Object>> parse() throws IOException, XmlPullParserException {
+        final XmlPullParser parser = new KXmlParser();
+        parser.setInput(new ByteArrayInputStream(mXml), "UTF-8");
+        return TimeZoneList.parseZones(parser, DATE);
+    }
+
+    @Benchmark
+    public List<HashMap<String, Object>> sort() {
+        // The copy is part of the cost, the list is sorted in place
+        final List<HashMap<String, Object>> zones =
+                new ArrayList<HashMap<String, Object>>(mParsed);
+        TimeZoneList.sortByOffset(zones);
+        return zones;
+    }
+
+    @Benchmark
+    public int lookup(LookupState state) {
+        // getTimeZone() from the page is not part of it, only the scan
+        return TimeZoneList.indexOf(state.mSorted, state.mLookupZone);
+    }
+
+    private static byte[] readResource(String name) throws IOException {
+        final InputStream in = TimeZoneListBenchmark.class.getResourceAsStream(name);
+        if (in == null) {
+            throw new IOException("Missing resource " + name);
+        }
+        try {
+            final ByteArrayOutputStream out = new ByteArrayOutputStream();
+            final byte[] buffer = new byte[8192];
+            int count;
+            while ((count = in.read(buffer)) != -1) {
+                out.write(buffer, 0, count);
+            }
+            return out.toByteArray();
+        } finally {
+            in.close();
+        }
+    }
+}
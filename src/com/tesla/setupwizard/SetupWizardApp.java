@@ -24,7 +24,10 @@ import android.content.pm.PackageManager;
 import android.os.Handler;
 import android.provider.Settings;
 
+import com.tesla.setupwizard.util.IntentRegistry;
+import com.tesla.setupwizard.util.LocaleModel;
 import com.tesla.setupwizard.util.SetupWizardUtils;
+import com.tesla.setupwizard.util.WifiWarmer;
 
 import cyanogenmod.providers.CMSettings;
 
@@ -120,10 +123,16 @@ public class SetupWizardApp extends Application {
                 t.run();
             }  else {
                 disableCaptivePortalDetection();
+                LocaleModel.preload(this);
+                IntentRegistry.preload(this);
+                WifiWarmer.start(this);
             }
         } catch (Settings.SettingNotFoundException e) {
             // Continue with setup
             disableCaptivePortalDetection();
+            LocaleModel.preload(this);
+            IntentRegistry.preload(this);
+            WifiWarmer.start(this);
         }
         mHandler.postDelayed(mRadioTimeoutRunnable, SetupWizardApp.RADIO_READY_TIMEOUT);
     }
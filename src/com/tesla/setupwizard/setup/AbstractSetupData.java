@@ -18,6 +18,7 @@ package com.tesla.setupwizard.setup;
 
 import android.content.BroadcastReceiver;
 import android.content.Context;
+import android.content.Intent;
 import android.os.Bundle;
 
 import java.util.ArrayList;
@@ -216,6 +217,14 @@ public abstract class AbstractSetupData extends BroadcastReceiver implements Set
         }
     }
 
+    @Override
+    public void launchActivityForResult(Page page, Intent intent, int requestCode,
+            Bundle options) {
+        for (int i = 0; i < mListeners.size(); i++) {
+            mListeners.get(i).launchActivityForResult(page, intent, requestCode, options);
+        }
+    }
+
     public boolean isFinished() {
         return mIsFinished;
     }
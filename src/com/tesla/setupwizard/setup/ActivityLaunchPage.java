@@ -0,0 +1,59 @@
+/*
+ * Copyright (C) 2015 The Tesla OS
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tesla.setupwizard.setup;
+
+import android.app.ActivityOptions;
+import android.app.FragmentManager;
+import android.content.Context;
+import android.content.Intent;
+
+import com.tesla.setupwizard.R;
+
+/**
+ * A page that is only another activity, like the wifi picker. It has no fragment,
+ * the setup activity covers the content with a shared placeholder while it runs
+ * and hands results back to the page that started it by request code.
+ */
+public abstract class ActivityLaunchPage extends SetupPage {
+
+    protected ActivityLaunchPage(Context context, SetupDataCallbacks callbacks) {
+        super(context, callbacks);
+    }
+
+    @Override
+    public int getTitleResId() {
+        return R.string.loading;
+    }
+
+    @Override
+    public int getNextButtonTitleResId() {
+        return R.string.skip;
+    }
+
+    @Override
+    public void doLoadAction(FragmentManager fragmentManager, int action) {
+        getCallbacks().onPageLoaded(this);
+    }
+
+    protected void startActivityForResult(Intent intent, int requestCode) {
+        ActivityOptions options =
+                ActivityOptions.makeCustomAnimation(mContext,
+                        android.R.anim.fade_in,
+                        android.R.anim.fade_out);
+        getCallbacks().launchActivityForResult(this, intent, requestCode, options.toBundle());
+    }
+}
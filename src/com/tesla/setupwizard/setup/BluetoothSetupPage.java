@@ -17,69 +17,36 @@
 package com.tesla.setupwizard.setup;
 
 import android.app.Activity;
-import android.app.ActivityOptions;
 import android.app.FragmentManager;
 import android.content.Context;
 import android.content.Intent;
-import android.os.Bundle;
 import android.os.Handler;
 import android.provider.Settings;
 import android.util.Log;
 
-import com.tesla.setupwizard.R;
 import com.tesla.setupwizard.SetupWizardApp;
-import com.tesla.setupwizard.ui.LoadingFragment;
-import com.tesla.setupwizard.ui.SetupPageFragment;
-import com.tesla.setupwizard.util.SetupWizardUtils;
+import com.tesla.setupwizard.util.IntentRegistry;
 
 import java.io.IOException;
 import java.net.HttpURLConnection;
 import java.net.MalformedURLException;
 import java.net.URL;
 
-public class BluetoothSetupPage extends SetupPage {
+public class BluetoothSetupPage extends ActivityLaunchPage {
 
     public static final String TAG = "BluetoothSetupPage";
 
-    private static final String ACTION_CONNECT_INPUT =
-            "com.google.android.intent.action.CONNECT_INPUT";
-
     private static final String INTENT_EXTRA_NO_INPUT_MODE = "no_input_mode";
 
-    private LoadingFragment mLoadingFragment;
-
     public BluetoothSetupPage(Context context, SetupDataCallbacks callbacks) {
         super(context, callbacks);
     }
 
-    @Override
-    public SetupPageFragment getFragment(FragmentManager fragmentManager, int action) {
-        mLoadingFragment = (LoadingFragment)fragmentManager.findFragmentByTag(getKey());
-        if (mLoadingFragment == null) {
-            Bundle args = new Bundle();
-            args.putString(Page.KEY_PAGE_ARGUMENT, getKey());
-            args.putInt(Page.KEY_PAGE_ACTION, action);
-            mLoadingFragment = new LoadingFragment();
-            mLoadingFragment.setArguments(args);
-        }
-        return mLoadingFragment;
-    }
-
-    @Override
-    public int getNextButtonTitleResId() {
-        return R.string.skip;
-    }
-
     @Override
     public String getKey() {
         return TAG;
     }
 
-    @Override
-    public int getTitleResId() {
-        return R.string.loading;
-    }
-
 
     @Override
     public void doLoadAction(FragmentManager fragmentManager, int action) {
@@ -98,16 +65,10 @@ public class BluetoothSetupPage extends SetupPage {
     }
 
     private void launchConnectInput() {
-        Intent intent = new Intent();
-        intent.setComponent(SetupWizardUtils.mTvAddAccessorySettingsActivity);
-        intent.setAction(ACTION_CONNECT_INPUT);
+        Intent intent = IntentRegistry.newIntent(mContext,
+                IntentRegistry.TARGET_BLUETOOTH_ACCESSORY);
         intent.addFlags(Intent.FLAG_ACTIVITY_NEW_TASK);
         intent.putExtra(INTENT_EXTRA_NO_INPUT_MODE, true);
-        ActivityOptions options =
-                ActivityOptions.makeCustomAnimation(mContext,
-                        android.R.anim.fade_in,
-                        android.R.anim.fade_out);
-        mLoadingFragment.startActivityForResult(intent,
-                SetupWizardApp.REQUEST_CODE_SETUP_BLUETOOTH, options.toBundle());
+        startActivityForResult(intent, SetupWizardApp.REQUEST_CODE_SETUP_BLUETOOTH);
     }
 }
@@ -29,8 +29,11 @@ import android.content.Context;
 import android.content.Intent;
 import android.content.IntentFilter;
 import android.content.res.XmlResourceParser;
+import android.os.AsyncTask;
 import android.os.Bundle;
 import android.os.Handler;
+import android.os.SystemClock;
+import android.text.TextUtils;
 import android.text.format.DateFormat;
 import android.util.Log;
 import android.view.View;
@@ -42,16 +45,21 @@ import android.widget.TextView;
 import android.widget.TimePicker;
 
 import com.tesla.setupwizard.R;
+import com.tesla.setupwizard.SetupWizardApp;
 import com.tesla.setupwizard.ui.SetupPageFragment;
+import com.tesla.setupwizard.util.DateTimeSuggester;
+import com.tesla.setupwizard.util.TimeZoneList;
+import com.tesla.setupwizard.util.TimeZoneProvider;
 
 import org.xmlpull.v1.XmlPullParserException;
 
+import java.util.AbstractList;
 import java.util.ArrayList;
 import java.util.Calendar;
-import java.util.Collections;
-import java.util.Comparator;
+import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 import java.util.TimeZone;
 
@@ -59,14 +67,46 @@ public class DateTimePage extends SetupPage {
 
     public static final String TAG = "DateTimePage";
 
-    private static final String KEY_ID = "id";  // value: String
-    private static final String KEY_DISPLAYNAME = "name";  // value: String
-    private static final String KEY_GMT = "gmt";  // value: String
-    private static final String KEY_OFFSET = "offset";  // value: int (Integer)
-    private static final String XMLTAG_TIMEZONE = "timezone";
+    // How long to wait for the user to settle before touching the system clock
+    private static final int COMMIT_DELAY_MILLIS = 500;
 
-    private static final int HOURS_1 = 60 * 60000;
+    // Time/timezone broadcasts arriving this soon after a commit are our own
+    private static final int OWN_CHANGE_WINDOW_MILLIS = 5000;
 
+    private static final String EXTRA_TIME_ZONE = "time-zone";
+
+    // Don't bother setting the clock for a suggestion closer than this
+    private static final int SUGGESTED_CLOCK_THRESHOLD_MILLIS = 1000;
+
+    private final Handler mHandler = new Handler();
+
+    // Staged changes, only touched on the main thread
+    private String mPendingTimeZoneId;
+    private boolean mHasPendingClock;
+    private long mPendingClockOffset;
+
+    // Last commit, written from the commit thread
+    private volatile long mLastCommitElapsed = -OWN_CHANGE_WINDOW_MILLIS;
+    private volatile String mLastCommittedTimeZoneId;
+    private volatile boolean mLastCommitHadClock;
+
+    private int mPendingGeneration;
+
+    private boolean mChangedByUser;
+
+    private Runnable mOnCommittedListener;
+
+    // Loaded once and kept for the rest of setup
+    private List<HashMap<String, Object>> mTimeZones;
+    private LoadTimeZonesTask mLoadTimeZonesTask;
+    private Runnable mOnTimeZonesLoadedListener;
+
+    private final Runnable mCommitRunnable = new Runnable() {
+        @Override
+        public void run() {
+            commitPendingChanges();
+        }
+    };
 
     public DateTimePage(Context context, SetupDataCallbacks callbacks) {
         super(context, callbacks);
@@ -95,6 +135,229 @@ public class DateTimePage extends SetupPage {
         return R.string.setup_datetime;
     }
 
+    @Override
+    public void onFinishSetup() {
+        if (mHandler.hasCallbacks(mCommitRunnable)) {
+            mHandler.removeCallbacks(mCommitRunnable);
+            commitPendingChanges();
+        }
+    }
+
+    /**
+     * The timezone the user has picked, which may not be committed yet.
+     */
+    public TimeZone getTimeZone() {
+        return mPendingTimeZoneId != null
+                ? TimeZone.getTimeZone(mPendingTimeZoneId) : TimeZone.getDefault();
+    }
+
+    /**
+     * The current time including any clock change not committed yet.
+     */
+    public long currentTimeMillis() {
+        return System.currentTimeMillis() + (mHasPendingClock ? mPendingClockOffset : 0);
+    }
+
+    public Calendar getCalendar() {
+        final Calendar calendar = Calendar.getInstance(getTimeZone());
+        calendar.setTimeInMillis(currentTimeMillis());
+        return calendar;
+    }
+
+    public void setTimeZone(String timeZoneId) {
+        mChangedByUser = true;
+        mPendingTimeZoneId = timeZoneId;
+        scheduleCommit();
+    }
+
+    public void setDate(int year, int month, int day) {
+        mChangedByUser = true;
+        stageDate(year, month, day);
+    }
+
+    /**
+     * Stages a placeholder date for a clock that was never set. Unlike
+     * {@link #setDate} this still lets suggestions replace it.
+     */
+    public void setDefaultDate(int year, int month, int day) {
+        stageDate(year, month, day);
+    }
+
+    private void stageDate(int year, int month, int day) {
+        final Calendar c = getCalendar();
+        c.set(Calendar.YEAR, year);
+        c.set(Calendar.MONTH, month);
+        c.set(Calendar.DAY_OF_MONTH, day);
+        setClock(c.getTimeInMillis());
+    }
+
+    public void setTime(int hourOfDay, int minute) {
+        mChangedByUser = true;
+        final Calendar c = getCalendar();
+        c.set(Calendar.HOUR_OF_DAY, hourOfDay);
+        c.set(Calendar.MINUTE, minute);
+        c.set(Calendar.SECOND, 0);
+        c.set(Calendar.MILLISECOND, 0);
+        setClock(c.getTimeInMillis());
+    }
+
+    /**
+     * Preselects a suggested timezone and time, unless the user already picked their own.
+     */
+    public void applySuggestion(DateTimeSuggester.Suggestion suggestion) {
+        if (mChangedByUser) {
+            return;
+        }
+        final String timeZoneId = suggestion.getTimeZoneId();
+        if (timeZoneId != null && !timeZoneId.equals(getTimeZone().getID())) {
+            mPendingTimeZoneId = timeZoneId;
+            scheduleCommit();
+        }
+        if (suggestion.hasTime() && Math.abs(suggestion.currentTimeMillis()
+                - currentTimeMillis()) > SUGGESTED_CLOCK_THRESHOLD_MILLIS) {
+            setClock(suggestion.currentTimeMillis());
+        }
+    }
+
+    /**
+     * The timezones to offer sorted by offset, or null until loaded.
+     */
+    public List<HashMap<String, Object>> getTimeZones() {
+        return mTimeZones;
+    }
+
+    /**
+     * Loads the timezones in the background if needed, then runs {@code listener}
+     * on the main thread.
+     */
+    public void loadTimeZones(Runnable listener) {
+        if (mTimeZones != null) {
+            listener.run();
+            return;
+        }
+        mOnTimeZonesLoadedListener = listener;
+        if (mLoadTimeZonesTask == null) {
+            mLoadTimeZonesTask = new LoadTimeZonesTask();
+            mLoadTimeZonesTask.execute();
+        }
+    }
+
+    /**
+     * Called on the main thread once staged changes have reached the system.
+     */
+    public void setOnCommittedListener(Runnable listener) {
+        mOnCommittedListener = listener;
+    }
+
+    /**
+     * Whether a time or timezone broadcast was caused by our own commit.
+     */
+    public boolean isOwnChange(Intent intent) {
+        if (SystemClock.elapsedRealtime() - mLastCommitElapsed > OWN_CHANGE_WINDOW_MILLIS) {
+            return false;
+        }
+        final String action = intent.getAction();
+        if (Intent.ACTION_TIMEZONE_CHANGED.equals(action)) {
+            return mLastCommittedTimeZoneId != null && TextUtils.equals(
+                    mLastCommittedTimeZoneId, intent.getStringExtra(EXTRA_TIME_ZONE));
+        } else if (Intent.ACTION_TIME_CHANGED.equals(action)) {
+            return mLastCommitHadClock;
+        }
+        return false;
+    }
+
+    private void setClock(long when) {
+        if (when / 1000 < Integer.MAX_VALUE) {
+            mPendingClockOffset = when - System.currentTimeMillis();
+            mHasPendingClock = true;
+            scheduleCommit();
+        }
+    }
+
+    private void scheduleCommit() {
+        mPendingGeneration++;
+        mHandler.removeCallbacks(mCommitRunnable);
+        mHandler.postDelayed(mCommitRunnable, COMMIT_DELAY_MILLIS);
+    }
+
+    private void commitPendingChanges() {
+        final String timeZoneId = mPendingTimeZoneId;
+        final boolean hasClock = mHasPendingClock;
+        final long clockOffset = mPendingClockOffset;
+        final int generation = mPendingGeneration;
+        if (timeZoneId == null && !hasClock) {
+            return;
+        }
+        AsyncTask.execute(new Runnable() {
+            @Override
+            public void run() {
+                final AlarmManager alarm =
+                        (AlarmManager) mContext.getSystemService(Context.ALARM_SERVICE);
+                mLastCommittedTimeZoneId = timeZoneId;
+                mLastCommitHadClock = hasClock;
+                mLastCommitElapsed = SystemClock.elapsedRealtime();
+                if (timeZoneId != null) {
+                    alarm.setTimeZone(timeZoneId);
+                    // Don't wait for the broadcast to refresh our own default
+                    TimeZone.setDefault(null);
+                }
+                if (hasClock) {
+                    alarm.setTime(System.currentTimeMillis() + clockOffset);
+                }
+                mHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        // Keep anything the user staged while we were committing
+                        if (generation == mPendingGeneration) {
+                            mPendingTimeZoneId = null;
+                            mHasPendingClock = false;
+                            mPendingClockOffset = 0;
+                        }
+                        if (mOnCommittedListener != null) {
+                            mOnCommittedListener.run();
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    private class LoadTimeZonesTask extends AsyncTask<Void, Void, List<HashMap<String, Object>>> {
+        @Override
+        protected List<HashMap<String, Object>> doInBackground(Void... params) {
+            final long date = System.currentTimeMillis();
+            final long start = SystemClock.elapsedRealtime();
+            if (mContext.getResources().getBoolean(R.bool.use_platform_timezones)) {
+                final List<TimeZone> zones = TimeZoneProvider.getCanonicalZones(
+                        TimeZone.getDefault().getID(), date);
+                if (SetupWizardApp.DEBUG) {
+                    Log.d(TAG, "Loaded " + zones.size() + " platform timezones in "
+                            + (SystemClock.elapsedRealtime() - start) + "ms");
+                }
+                return new PlatformTimeZoneList(zones, date);
+            }
+            final List<HashMap<String, Object>> zones = getZones(mContext);
+            final long parsed = SystemClock.elapsedRealtime();
+            TimeZoneList.sortByOffset(zones);
+            if (SetupWizardApp.DEBUG) {
+                Log.d(TAG, "Loaded " + zones.size() + " timezones, parse "
+                        + (parsed - start) + "ms, sort "
+                        + (SystemClock.elapsedRealtime() - parsed) + "ms");
+            }
+            return zones;
+        }
+
+        @Override
+        protected void onPostExecute(List<HashMap<String, Object>> zones) {
+            mTimeZones = zones;
+            mLoadTimeZonesTask = null;
+            if (mOnTimeZonesLoadedListener != null) {
+                mOnTimeZonesLoadedListener.run();
+                mOnTimeZonesLoadedListener = null;
+            }
+        }
+    }
+
     public static class DateTimeFragment extends SetupPageFragment
             implements TimePickerDialog.OnTimeSetListener, DatePickerDialog.OnDateSetListener {
 
@@ -104,12 +367,43 @@ public class DateTimePage extends SetupPage {
         private TextView mDateTextView;
         private TextView mTimeTextView;
 
+        // Formatters are rebuilt only when the locale changes or a time/timezone
+        // broadcast (which also covers the 24-hour setting) invalidates them.
+        private java.text.DateFormat mDateFormat;
+        private java.text.DateFormat mTimeFormat;
+        private Locale mFormatLocale;
+        private final Date mNow = new Date();
+        private String mDateText;
+        private String mTimeText;
 
         private final Handler mHandler = new Handler();
 
+        private final Runnable mOnTimeZonesLoadedListener = new Runnable() {
+            @Override
+            public void run() {
+                if (getActivity() != null && mRootView != null) {
+                    initializeTimeZoneList();
+                }
+            }
+        };
+
+        private final Runnable mOnCommittedListener = new Runnable() {
+            @Override
+            public void run() {
+                invalidateFormatters();
+                final Activity activity = getActivity();
+                if (activity != null) {
+                    // The commit may have been a suggested timezone
+                    updateTimeZoneSelection();
+                    updateTimeAndDateDisplay(activity);
+                }
+            }
+        };
+
         @Override
         public void onResume() {
             super.onResume();
+            getDateTimePage().setOnCommittedListener(mOnCommittedListener);
             // Register for time ticks and other reasons for time change
             IntentFilter filter = new IntentFilter();
             filter.addAction(Intent.ACTION_TIME_TICK);
@@ -117,6 +411,9 @@ public class DateTimePage extends SetupPage {
             filter.addAction(Intent.ACTION_TIMEZONE_CHANGED);
             getActivity().registerReceiver(mIntentReceiver, filter, null, null);
 
+            // We may have missed a timezone or 24-hour change while paused.
+            invalidateFormatters();
+            updateTimeZoneSelection();
             updateTimeAndDateDisplay(getActivity());
         }
 
@@ -124,13 +421,16 @@ public class DateTimePage extends SetupPage {
         public void onPause() {
             super.onPause();
             getActivity().unregisterReceiver(mIntentReceiver);
+            getDateTimePage().setOnCommittedListener(null);
+        }
+
+        private DateTimePage getDateTimePage() {
+            return (DateTimePage) mCallbacks.getPage(mKey);
         }
 
         @Override
         protected void initializePage() {
-            final Spinner spinner = (Spinner) mRootView.findViewById(R.id.timezone_list);
-            final SimpleAdapter adapter = constructTimezoneAdapter(getActivity(), false);
-            mCurrentTimeZone = TimeZone.getDefault();
+            mCurrentTimeZone = getDateTimePage().getTimeZone();
             mDateView = mRootView.findViewById(R.id.date_item);
             mDateView.setOnClickListener(new View.OnClickListener() {
                 @Override
@@ -147,50 +447,101 @@ public class DateTimePage extends SetupPage {
             });
             mDateTextView = (TextView)mRootView.findViewById(R.id.date_text);
             mTimeTextView = (TextView)mRootView.findViewById(R.id.time_text);
-            // Pre-select current/default timezone
+            // Views are new, make sure the next update sets their text
+            mDateText = null;
+            mTimeText = null;
+            // Fill the timezone list after the first draw, it is loaded in the
+            // background only once per setup
             mHandler.post(new Runnable() {
                 @Override
                 public void run() {
-                    int tzIndex = getTimeZoneIndex(adapter, mCurrentTimeZone);
-                    spinner.setAdapter(adapter);
-                    if (tzIndex != -1) {
-                        spinner.setSelection(tzIndex);
-                    }
-                    spinner.setOnItemSelectedListener(new AdapterView.OnItemSelectedListener() {
-                        @Override
-                        public void onItemSelected(AdapterView<?> adapterView, View view, int position, long id) {
-                            final Map<?, ?> map = (Map<?, ?>) adapterView.getItemAtPosition(position);
-                            final String tzId = (String) map.get(KEY_ID);
-                            if (mCurrentTimeZone != null && !mCurrentTimeZone.getID().equals(tzId)) {
-                                // Update the system timezone value
-                                final Activity activity = getActivity();
-                                final AlarmManager alarm = (AlarmManager) activity.getSystemService(Context.ALARM_SERVICE);
-                                alarm.setTimeZone(tzId);
-                                mCurrentTimeZone = TimeZone.getTimeZone(tzId);
-                            }
-
-                        }
-
-                        @Override
-                        public void onNothingSelected(AdapterView<?> adapterView) {
-                        }
-                    });
+                    getDateTimePage().loadTimeZones(mOnTimeZonesLoadedListener);
                 }
             });
             // Pre-select current/default date if epoch
             mHandler.post(new Runnable() {
                 @Override
                 public void run() {
-                    final Calendar calendar = Calendar.getInstance();
+                    final DateTimePage page = getDateTimePage();
+                    final Calendar calendar = page.getCalendar();
                     final boolean isEpoch = calendar.get(Calendar.YEAR) == 1970;
                     if (isEpoch) {
                         // If epoch, set date to a default date
-                        setDate(getActivity(), 2016, Calendar.JANUARY, 1);
+                        page.setDefaultDate(2016, Calendar.JANUARY, 1);
+                        updateTimeAndDateDisplay(getActivity());
                     }
                 }
             });
         }
 
+        private void initializeTimeZoneList() {
+            final Spinner spinner = (Spinner) mRootView.findViewById(R.id.timezone_list);
+            final List<HashMap<String, Object>> zones = getDateTimePage().getTimeZones();
+            final SimpleAdapter adapter = constructTimezoneAdapter(getActivity(), zones);
+            spinner.setAdapter(adapter);
+            // Pre-select current/default timezone
+            selectTimeZone(spinner, zones, mCurrentTimeZone);
+            spinner.setOnItemSelectedListener(new AdapterView.OnItemSelectedListener() {
+                @Override
+                public void onItemSelected(AdapterView<?> adapterView, View view, int position, long id) {
+                    final Map<?, ?> map = (Map<?, ?>) adapterView.getItemAtPosition(position);
+                    final String tzId = (String) map.get(TimeZoneList.KEY_ID);
+                    if (mCurrentTimeZone != null && !mCurrentTimeZone.getID().equals(tzId)) {
+                        // Stage the system timezone value, it is committed
+                        // once the user stops changing it
+                        getDateTimePage().setTimeZone(tzId);
+                        mCurrentTimeZone = TimeZone.getTimeZone(tzId);
+                        updateTimeAndDateDisplay(getActivity());
+                    }
+
+                }
+
+                @Override
+                public void onNothingSelected(AdapterView<?> adapterView) {
+                }
+            });
+        }
+
+        /**
+         * Moves the timezone list to the page's timezone if something other than
+         * the list changed it, like a suggestion.
+         */
+        private void updateTimeZoneSelection() {
+            final TimeZone timeZone = getDateTimePage().getTimeZone();
+            if (mRootView == null || mCurrentTimeZone == null
+                    || mCurrentTimeZone.getID().equals(timeZone.getID())) {
+                return;
+            }
+            mCurrentTimeZone = timeZone;
+            final Spinner spinner = (Spinner) mRootView.findViewById(R.id.timezone_list);
+            final List<HashMap<String, Object>> zones = getDateTimePage().getTimeZones();
+            if (zones == null || spinner.getAdapter() == null) {
+                // Selected once the list is loaded
+                return;
+            }
+            selectTimeZone(spinner, zones, timeZone);
+        }
+
+        /**
+         * Selects the row of {@code timeZone}, or keeps the spinner's row if it isn't
+         * listed. The row may be an alias or another zone, so the row's own zone is
+         * remembered and the spinner selecting it isn't taken as the user's pick.
+         */
+        private void selectTimeZone(Spinner spinner, List<HashMap<String, Object>> zones,
+                TimeZone timeZone) {
+            int tzIndex = getTimeZoneIndex(zones, timeZone);
+            if (tzIndex != -1) {
+                spinner.setSelection(tzIndex);
+            } else {
+                // After setAdapter this is the first row, which its first layout selects
+                tzIndex = spinner.getSelectedItemPosition();
+            }
+            if (tzIndex != AdapterView.INVALID_POSITION) {
+                mCurrentTimeZone = TimeZone.getTimeZone(
+                        (String) zones.get(tzIndex).get(TimeZoneList.KEY_ID));
+            }
+        }
+
         private void showDatePicker() {
             DatePickerFragment datePickerFragment = DatePickerFragment.newInstance();
             datePickerFragment.setTargetFragment(this, 0);
@@ -204,10 +555,41 @@ public class DateTimePage extends SetupPage {
         }
 
         public void updateTimeAndDateDisplay(Context context) {
-            java.text.DateFormat shortDateFormat = DateFormat.getDateFormat(context);
-            final Calendar now = Calendar.getInstance();
-            mTimeTextView.setText(DateFormat.getTimeFormat(getActivity()).format(now.getTime()));
-            mDateTextView.setText(shortDateFormat.format(now.getTime()));
+            ensureFormatters(context);
+            final DateTimePage page = getDateTimePage();
+            final TimeZone timeZone = page.getTimeZone();
+            if (!timeZone.hasSameRules(mTimeFormat.getTimeZone())) {
+                mTimeFormat.setTimeZone(timeZone);
+                mDateFormat.setTimeZone(timeZone);
+            }
+            mNow.setTime(page.currentTimeMillis());
+            final String timeText = mTimeFormat.format(mNow);
+            final String dateText = mDateFormat.format(mNow);
+            if (!timeText.equals(mTimeText)) {
+                mTimeText = timeText;
+                mTimeTextView.setText(timeText);
+            }
+            if (!dateText.equals(mDateText)) {
+                mDateText = dateText;
+                mDateTextView.setText(dateText);
+            }
+        }
+
+        private void ensureFormatters(Context context) {
+            final Locale locale = Locale.getDefault();
+            if (mDateFormat != null && locale.equals(mFormatLocale)) {
+                return;
+            }
+            mFormatLocale = locale;
+            mDateFormat = DateFormat.getDateFormat(context);
+            mTimeFormat = DateFormat.getTimeFormat(context);
+        }
+
+        private void invalidateFormatters() {
+            mDateFormat = null;
+            mTimeFormat = null;
+            mDateText = null;
+            mTimeText = null;
         }
 
         @Override
@@ -219,7 +601,7 @@ public class DateTimePage extends SetupPage {
         public void onDateSet(DatePicker view, int year, int month, int day) {
             final Activity activity = getActivity();
             if (activity != null) {
-                setDate(activity, year, month, day);
+                getDateTimePage().setDate(year, month, day);
                 updateTimeAndDateDisplay(activity);
             }
         }
@@ -228,7 +610,7 @@ public class DateTimePage extends SetupPage {
         public void onTimeSet(TimePicker view, int hourOfDay, int minute) {
             final Activity activity = getActivity();
             if (activity != null) {
-                setTime(activity, hourOfDay, minute);
+                getDateTimePage().setTime(hourOfDay, minute);
                 updateTimeAndDateDisplay(activity);
             }
         }
@@ -236,6 +618,16 @@ public class DateTimePage extends SetupPage {
         private BroadcastReceiver mIntentReceiver = new BroadcastReceiver() {
             @Override
             public void onReceive(Context context, Intent intent) {
+                if (getDateTimePage().isOwnChange(intent)) {
+                    // Already shown, mOnCommittedListener refreshes the formatters
+                    return;
+                }
+                final String action = intent.getAction();
+                if (Intent.ACTION_TIME_CHANGED.equals(action)
+                        || Intent.ACTION_TIMEZONE_CHANGED.equals(action)) {
+                    // Also sent when the 24-hour preference changes
+                    invalidateFormatters();
+                }
                 final Activity activity = getActivity();
                 if (activity != null) {
                     updateTimeAndDateDisplay(activity);
@@ -246,14 +638,11 @@ public class DateTimePage extends SetupPage {
     }
 
     private static SimpleAdapter constructTimezoneAdapter(Context context,
-            boolean sortedByName) {
-        final String[] from = new String[] {KEY_DISPLAYNAME, KEY_GMT};
+            List<HashMap<String, Object>> sortedList) {
+        final String[] from =
+                new String[] {TimeZoneList.KEY_DISPLAYNAME, TimeZoneList.KEY_GMT};
         final int[] to = new int[] {android.R.id.text1, android.R.id.text2};
 
-        final String sortKey = (sortedByName ? KEY_DISPLAYNAME : KEY_OFFSET);
-        final TimeZoneComparator comparator = new TimeZoneComparator(sortKey);
-        final List<HashMap<String, Object>> sortedList = getZones(context);
-        Collections.sort(sortedList, comparator);
         final SimpleAdapter adapter = new SimpleAdapter(context,
                 sortedList,
                 R.layout.date_time_setup_custom_list_item_2,
@@ -264,146 +653,89 @@ public class DateTimePage extends SetupPage {
     }
 
     private static List<HashMap<String, Object>> getZones(Context context) {
-        final List<HashMap<String, Object>> myData = new ArrayList<HashMap<String, Object>>();
-        final long date = Calendar.getInstance().getTimeInMillis();
+        final XmlResourceParser xrp = context.getResources().getXml(R.xml.timezones);
         try {
-            XmlResourceParser xrp = context.getResources().getXml(R.xml.timezones);
-            while (xrp.next() != XmlResourceParser.START_TAG)
-                continue;
-            xrp.next();
-            while (xrp.getEventType() != XmlResourceParser.END_TAG) {
-                while (xrp.getEventType() != XmlResourceParser.START_TAG) {
-                    if (xrp.getEventType() == XmlResourceParser.END_DOCUMENT) {
-                        return myData;
-                    }
-                    xrp.next();
-                }
-                if (xrp.getName().equals(XMLTAG_TIMEZONE)) {
-                    String id = xrp.getAttributeValue(0);
-                    String displayName = xrp.nextText();
-                    addItem(myData, id, displayName, date);
-                }
-                while (xrp.getEventType() != XmlResourceParser.END_TAG) {
-                    xrp.next();
-                }
-                xrp.next();
-            }
-            xrp.close();
+            return TimeZoneList.parseZones(xrp, Calendar.getInstance().getTimeInMillis());
         } catch (XmlPullParserException xppe) {
             Log.e(TAG, "Ill-formatted timezones.xml file");
         } catch (java.io.IOException ioe) {
             Log.e(TAG, "Unable to read timezones.xml file");
+        } finally {
+            xrp.close();
         }
-
-        return myData;
+        return new ArrayList<HashMap<String, Object>>();
     }
 
-    private static void addItem(
-            List<HashMap<String, Object>> myData, String id, String displayName, long date) {
-        final HashMap<String, Object> map = new HashMap<String, Object>();
-        map.put(KEY_ID, id);
-        map.put(KEY_DISPLAYNAME, displayName);
-        final TimeZone tz = TimeZone.getTimeZone(id);
-        final int offset = tz.getOffset(date);
-        final int p = Math.abs(offset);
-        final StringBuilder name = new StringBuilder();
-        name.append("GMT");
-
-        if (offset < 0) {
-            name.append('-');
-        } else {
-            name.append('+');
-        }
-
-        name.append(p / (HOURS_1));
-        name.append(':');
-
-        int min = p / 60000;
-        min %= 60;
-
-        if (min < 10) {
-            name.append('0');
+    private static int getTimeZoneIndex(List<HashMap<String, Object>> zones, TimeZone tz) {
+        if (zones instanceof PlatformTimeZoneList) {
+            return ((PlatformTimeZoneList) zones).indexOfZone(tz);
         }
-        name.append(min);
-
-        map.put(KEY_GMT, name.toString());
-        map.put(KEY_OFFSET, offset);
-
-        myData.add(map);
+        return TimeZoneList.indexOf(zones, tz);
     }
 
-    private static int getTimeZoneIndex(SimpleAdapter adapter, TimeZone tz) {
-        final String defaultId = tz.getID();
-        final int listSize = adapter.getCount();
-        for (int i = 0; i < listSize; i++) {
-            // Using HashMap<String, Object> induces unnecessary warning.
-            final HashMap<?,?> map = (HashMap<?,?>)adapter.getItem(i);
-            final String id = (String)map.get(KEY_ID);
-            if (defaultId.equals(id)) {
-                // If current timezone is in this list, move focus to it
-                return i;
+    /**
+     * Zones from {@link TimeZoneProvider}, the rows are only built a page at a
+     * time as the list scrolls to them.
+     */
+    private static class PlatformTimeZoneList extends AbstractList<HashMap<String, Object>> {
+        private static final int PAGE_SIZE = 32;
+
+        private final List<TimeZone> mZones;
+        private final List<HashMap<String, Object>> mItems;
+        private final long mDate;
+
+        public PlatformTimeZoneList(List<TimeZone> zones, long date) {
+            mZones = zones;
+            mDate = date;
+            mItems = new ArrayList<HashMap<String, Object>>(zones.size());
+            for (int i = 0; i < zones.size(); i++) {
+                mItems.add(null);
             }
         }
-        return -1;
-    }
 
-    private static void setDate(Context context, int year, int month, int day) {
-        Calendar c = Calendar.getInstance();
-
-        c.set(Calendar.YEAR, year);
-        c.set(Calendar.MONTH, month);
-        c.set(Calendar.DAY_OF_MONTH, day);
-        long when = c.getTimeInMillis();
-
-        if (when / 1000 < Integer.MAX_VALUE) {
-            ((AlarmManager) context.getSystemService(Context.ALARM_SERVICE)).setTime(when);
-        }
-    }
-
-    private static void setTime(Context context, int hourOfDay, int minute) {
-        Calendar c = Calendar.getInstance();
-
-        c.set(Calendar.HOUR_OF_DAY, hourOfDay);
-        c.set(Calendar.MINUTE, minute);
-        c.set(Calendar.SECOND, 0);
-        c.set(Calendar.MILLISECOND, 0);
-        long when = c.getTimeInMillis();
-
-        if (when / 1000 < Integer.MAX_VALUE) {
-            ((AlarmManager) context.getSystemService(Context.ALARM_SERVICE)).setTime(when);
-        }
-    }
-
-    private static class TimeZoneComparator implements Comparator<HashMap<?, ?>> {
-        private String mSortingKey;
-
-        public TimeZoneComparator(String sortingKey) {
-            mSortingKey = sortingKey;
+        @Override
+        public HashMap<String, Object> get(int location) {
+            HashMap<String, Object> item = mItems.get(location);
+            if (item == null) {
+                loadPage(location / PAGE_SIZE);
+                item = mItems.get(location);
+            }
+            return item;
         }
 
-        public void setSortingKey(String sortingKey) {
-            mSortingKey = sortingKey;
+        @Override
+        public int size() {
+            return mZones.size();
         }
 
-        public int compare(HashMap<?, ?> map1, HashMap<?, ?> map2) {
-            Object value1 = map1.get(mSortingKey);
-            Object value2 = map2.get(mSortingKey);
-
-            /*
-             * This should never happen, but just in-case, put non-comparable
-             * items at the end.
-             */
-            if (!isComparable(value1)) {
-                return isComparable(value2) ? 1 : 0;
-            } else if (!isComparable(value2)) {
-                return -1;
+        public int indexOfZone(TimeZone tz) {
+            final int size = mZones.size();
+            for (int i = 0; i < size; i++) {
+                if (mZones.get(i).getID().equals(tz.getID())) {
+                    return i;
+                }
             }
-
-            return ((Comparable) value1).compareTo(value2);
+            // Aliases are merged, fall back to a zone that behaves the same
+            for (int i = 0; i < size; i++) {
+                if (mZones.get(i).hasSameRules(tz)) {
+                    return i;
+                }
+            }
+            return -1;
         }
 
-        private boolean isComparable(Object value) {
-            return (value != null) && (value instanceof Comparable);
+        private void loadPage(int page) {
+            final int start = page * PAGE_SIZE;
+            final int end = Math.min(start + PAGE_SIZE, mZones.size());
+            final List<HashMap<String, Object>> rows =
+                    new ArrayList<HashMap<String, Object>>(end - start);
+            for (int i = start; i < end; i++) {
+                final String id = mZones.get(i).getID();
+                TimeZoneList.addItem(rows, id, TimeZoneProvider.getCityName(id), mDate);
+            }
+            for (int i = start; i < end; i++) {
+                mItems.set(i, rows.get(i - start));
+            }
         }
     }
 
@@ -423,7 +755,8 @@ public class DateTimePage extends SetupPage {
 
         @Override
         public Dialog onCreateDialog(Bundle savedInstanceState) {
-            final Calendar calendar = Calendar.getInstance();
+            final Calendar calendar =
+                    ((DateTimeFragment) getTargetFragment()).getDateTimePage().getCalendar();
             return new TimePickerDialog(
                     getActivity(),
                     this,
@@ -451,7 +784,8 @@ public class DateTimePage extends SetupPage {
 
         @Override
         public Dialog onCreateDialog(Bundle savedInstanceState) {
-            final Calendar calendar = Calendar.getInstance();
+            final Calendar calendar =
+                    ((DateTimeFragment) getTargetFragment()).getDateTimePage().getCalendar();
             return new DatePickerDialog(
                     getActivity(),
                     this,
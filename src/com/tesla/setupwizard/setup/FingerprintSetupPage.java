@@ -29,10 +29,11 @@ import com.android.internal.widget.LockPatternUtils;
 import com.tesla.setupwizard.R;
 import com.tesla.setupwizard.SetupWizardApp;
 import com.tesla.setupwizard.ui.SetupPageFragment;
+import com.tesla.setupwizard.util.IntentRegistry;
 
 public class FingerprintSetupPage extends SetupPage {
 
-    private static final String TAG = "FingerprintSetupPage";
+    public static final String TAG = "FingerprintSetupPage";
 
     public FingerprintSetupPage(Context context, SetupDataCallbacks callbacks) {
         super(context, callbacks);
@@ -97,7 +98,8 @@ public class FingerprintSetupPage extends SetupPage {
         }
 
         private void launchFingerprintSetup() {
-            Intent intent = new Intent(SetupWizardApp.ACTION_SETUP_FINGERPRINT);
+            Intent intent = IntentRegistry.newIntent(getActivity(),
+                    IntentRegistry.TARGET_FINGERPRINT);
             intent.putExtra(SetupWizardApp.EXTRA_FIRST_RUN, true);
             intent.putExtra(SetupWizardApp.EXTRA_ALLOW_SKIP, true);
             intent.putExtra(SetupWizardApp.EXTRA_USE_IMMERSIVE, true);
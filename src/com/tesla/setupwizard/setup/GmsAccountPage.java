@@ -22,8 +22,6 @@ import android.accounts.AccountManagerFuture;
 import android.accounts.AuthenticatorException;
 import android.accounts.OperationCanceledException;
 import android.app.Activity;
-import android.app.ActivityOptions;
-import android.app.Fragment;
 import android.app.FragmentManager;
 import android.content.Context;
 import android.content.Intent;
@@ -33,14 +31,13 @@ import android.service.persistentdata.PersistentDataBlockManager;
 import android.util.Log;
 
 import com.android.setupwizardlib.util.ResultCodes;
-import com.tesla.setupwizard.R;
 import com.tesla.setupwizard.SetupWizardApp;
-import com.tesla.setupwizard.ui.LoadingFragment;
+import com.tesla.setupwizard.util.IntentRegistry;
 import com.tesla.setupwizard.util.SetupWizardUtils;
 
 import java.io.IOException;
 
-public class GmsAccountPage extends SetupPage {
+public class GmsAccountPage extends ActivityLaunchPage {
 
     public static final String TAG = "GmsAccountPage";
 
@@ -61,40 +58,15 @@ public class GmsAccountPage extends SetupPage {
     private static final String RESTORE_WIZARD_SCRIPT =
             "android.resource://com.google.android.setupwizard/xml/wizard_script";
 
-    private Fragment mFragment;
-
     public GmsAccountPage(final Context context, SetupDataCallbacks callbacks) {
         super(context, callbacks);
     }
 
-    @Override
-    public Fragment getFragment(FragmentManager fragmentManager, int action) {
-        mFragment = fragmentManager.findFragmentByTag(getKey());
-        if (mFragment == null) {
-            Bundle args = new Bundle();
-            args.putString(Page.KEY_PAGE_ARGUMENT, getKey());
-            args.putInt(Page.KEY_PAGE_ACTION, action);
-            mFragment = new LoadingFragment();
-            mFragment.setArguments(args);
-        }
-        return mFragment;
-    }
-
     @Override
     public String getKey() {
         return TAG;
     }
 
-    @Override
-    public int getTitleResId() {
-        return R.string.loading;
-    }
-
-    @Override
-    public int getNextButtonTitleResId() {
-        return R.string.skip;
-    }
-
     @Override
     public void doLoadAction(FragmentManager fragmentManager, int action) {
         if (action == Page.ACTION_PREVIOUS) {
@@ -190,10 +162,15 @@ public class GmsAccountPage extends SetupPage {
         if (SetupWizardApp.DEBUG) {
             Log.d(TAG, "Launching gms restore page with restorePicker " + restorePicker);
         }
+        if (IntentRegistry.isMissing(IntentRegistry.TARGET_GMS_RESTORE)) {
+            getCallbacks().onNextPage();
+            return;
+        }
         try {
             // GMS can disable this after logging in sometimes
             if (SetupWizardUtils.enableGMSSetupWizard(mContext)) {
-                Intent intent = new Intent(ACTION_PROGRESS);
+                Intent intent = IntentRegistry.newIntent(mContext,
+                        IntentRegistry.TARGET_GMS_RESTORE);
                 if (!restorePicker) {
                     intent.setAction(ACTION_PROGRESS);
                     intent.putExtra(SetupWizardApp.EXTRA_FRAGMENT, FRAGMENT_START_RESTORE);
@@ -210,13 +187,7 @@ public class GmsAccountPage extends SetupPage {
                 // XXX: Fool G's setup wizard into thinking it is their setup wizard.
                 // This is necessary to get the material theme on the restore page.
                 intent.putExtra("scriptUri", RESTORE_WIZARD_SCRIPT);
-                ActivityOptions options =
-                        ActivityOptions.makeCustomAnimation(mContext,
-                                android.R.anim.fade_in,
-                                android.R.anim.fade_out);
-                mFragment.startActivityForResult(
-                        intent,
-                        SetupWizardApp.REQUEST_CODE_RESTORE_GMS, options.toBundle());
+                startActivityForResult(intent, SetupWizardApp.REQUEST_CODE_RESTORE_GMS);
                 return;
             }
         } catch (Exception e) {
@@ -231,20 +202,18 @@ public class GmsAccountPage extends SetupPage {
         if (SetupWizardApp.DEBUG) {
             Log.d(TAG, "Launching gms vendor setup page");
         }
+        if (IntentRegistry.isMissing(IntentRegistry.TARGET_GMS_VENDOR)) {
+            getCallbacks().onNextPage();
+            return;
+        }
         try {
-            Intent intent = new Intent(ACTION_VENDOR_SETUP);
-            intent.setPackage(SetupWizardUtils.GOOGLE_SETUPWIZARD_PACKAGE);
+            Intent intent = IntentRegistry.newIntent(mContext,
+                    IntentRegistry.TARGET_GMS_VENDOR);
             intent.putExtra(SetupWizardApp.EXTRA_ALLOW_SKIP, true);
             intent.putExtra(SetupWizardApp.EXTRA_USE_IMMERSIVE, true);
             intent.putExtra(SetupWizardApp.EXTRA_FIRST_RUN, true);
             intent.putExtra(SetupWizardApp.EXTRA_THEME, SetupWizardApp.EXTRA_MATERIAL_LIGHT);
-            ActivityOptions options =
-                    ActivityOptions.makeCustomAnimation(mContext,
-                            android.R.anim.fade_in,
-                            android.R.anim.fade_out);
-            mFragment.startActivityForResult(
-                    intent,
-                    SetupWizardApp.REQUEST_CODE_VENDOR_SETUP_GMS, options.toBundle());
+            startActivityForResult(intent, SetupWizardApp.REQUEST_CODE_VENDOR_SETUP_GMS);
             return;
         } catch (Exception e) {
             // Move on if the vendor setup activity is not found.
@@ -281,12 +250,8 @@ public class GmsAccountPage extends SetupPage {
                             Bundle result = future.getResult();
                             Intent intent = result
                                     .getParcelable(AccountManager.KEY_INTENT);
-                            ActivityOptions options =
-                                    ActivityOptions.makeCustomAnimation(mContext,
-                                            android.R.anim.fade_in,
-                                            android.R.anim.fade_out);
-                            mFragment.startActivityForResult(intent,
-                                    SetupWizardApp.REQUEST_CODE_SETUP_GMS, options.toBundle());
+                            startActivityForResult(intent,
+                                    SetupWizardApp.REQUEST_CODE_SETUP_GMS);
                         } catch (OperationCanceledException e) {
                             error = true;
                         } catch (IOException e) {
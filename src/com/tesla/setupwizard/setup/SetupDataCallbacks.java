@@ -16,6 +16,9 @@
 
 package com.tesla.setupwizard.setup;
 
+import android.content.Intent;
+import android.os.Bundle;
+
 public interface SetupDataCallbacks {
     void onNextPage();
     void onPreviousPage();
@@ -28,4 +31,5 @@ public interface SetupDataCallbacks {
     Page getPage(int key);
     void setCurrentPage(String key);
     void addFinishRunnable(Runnable runnable);
+    void launchActivityForResult(Page page, Intent intent, int requestCode, Bundle options);
 }
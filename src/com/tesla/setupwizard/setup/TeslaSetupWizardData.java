@@ -20,17 +20,24 @@ import android.content.Context;
 import android.content.Intent;
 import android.content.IntentFilter;
 import android.net.ConnectivityManager;
+import android.os.AsyncTask;
 import android.os.SystemProperties;
 import android.telephony.SubscriptionManager;
 import android.telephony.TelephonyManager;
+import android.text.TextUtils;
 
 import android.util.Log;
 import com.android.internal.telephony.TelephonyIntents;
+import com.tesla.setupwizard.SetupWizardApp;
+import com.tesla.setupwizard.util.DateTimeSuggester;
+import com.tesla.setupwizard.util.IntentRegistry;
 import com.tesla.setupwizard.util.SetupWizardUtils;
 
 import java.util.ArrayList;
+import java.util.Locale;
 
-public class TeslaSetupWizardData extends AbstractSetupData {
+public class TeslaSetupWizardData extends AbstractSetupData
+        implements IntentRegistry.Callback {
 
     private static final String TAG = TeslaSetupWizardData.class.getSimpleName();
 
@@ -38,9 +45,18 @@ public class TeslaSetupWizardData extends AbstractSetupData {
     private boolean mTimeZoneSet = false;
     private boolean mMobileDataEnabled;
 
+    private SuggestDateTimeTask mSuggestDateTimeTask;
+    private boolean mPendingDateTimeSuggestion;
+    private boolean mSuggestedTime = false;
+    private boolean mDateTimeSuggestionConfident = false;
+    private String mNetworkCountry;
+
     public TeslaSetupWizardData(Context context) {
         super(context);
         mMobileDataEnabled = SetupWizardUtils.isMobileDataEnabled(context);
+        mNetworkCountry = getNetworkCountry();
+        suggestDateTime();
+        IntentRegistry.load(context, this);
     }
 
     @Override
@@ -77,6 +93,15 @@ public class TeslaSetupWizardData extends AbstractSetupData {
     }
 
 
+    @Override
+    public void onNextPage() {
+        if (isCurrentPage(getPage(WelcomePage.TAG))) {
+            // The locale is settled now, it may say more about where we are
+            suggestDateTime();
+        }
+        super.onNextPage();
+    }
+
     @Override
     public void onReceive(Context context, Intent intent) {
         if (intent.getAction().equals(TelephonyIntents.ACTION_SIM_STATE_CHANGED)) {
@@ -84,12 +109,30 @@ public class TeslaSetupWizardData extends AbstractSetupData {
             showHideSimMissingPage();
             showHideMobileDataPage();
             updateWelcomePage();
+            suggestDateTime();
         } else if (intent.getAction()
                 .equals(ConnectivityManager.CONNECTIVITY_ACTION)) {
             showHideMobileDataPage();
+            if (!isInitialStickyBroadcast()) {
+                invalidateCaptivePortalChecks();
+            }
+            if (!mSuggestedTime && SetupWizardUtils.isNetworkConnected(mContext)) {
+                suggestDateTime();
+            }
         } else  if (intent.getAction()
                 .equals(TelephonyIntents.ACTION_ANY_DATA_CONNECTION_STATE_CHANGED)) {
             showHideMobileDataPage();
+        } else if (intent.getAction()
+                .equals(TelephonyIntents.ACTION_SERVICE_STATE_CHANGED)) {
+            // Registering on a network tells us the country, or a different one
+            final String networkCountry = getNetworkCountry();
+            if (!TextUtils.equals(networkCountry, mNetworkCountry)) {
+                mNetworkCountry = networkCountry;
+                suggestDateTime();
+            }
+        } else if (isOwnDateTimeChange(intent)) {
+            // The user picked this on the date/time page, don't treat it as set
+            // by the network.
         } else if (intent.getAction().equals(Intent.ACTION_TIMEZONE_CHANGED) ||
                 intent.getAction().equals(TelephonyIntents.ACTION_NETWORK_SET_TIMEZONE)) {
             mTimeZoneSet = true;
@@ -101,6 +144,25 @@ public class TeslaSetupWizardData extends AbstractSetupData {
         }
     }
 
+    @Override
+    public void onIntentsResolved() {
+        hidePageIfMissing(WifiSetupPage.TAG, IntentRegistry.TARGET_WIFI);
+        hidePageIfMissing(FingerprintSetupPage.TAG, IntentRegistry.TARGET_FINGERPRINT);
+        hidePageIfMissing(BluetoothSetupPage.TAG, IntentRegistry.TARGET_BLUETOOTH_ACCESSORY);
+        onPageTreeChanged();
+    }
+
+    private void hidePageIfMissing(String key, int target) {
+        final Page page = getPage(key);
+        // A page already showing handles a failed launch itself
+        if (page != null && !isCurrentPage(page) && IntentRegistry.isMissing(target)) {
+            if (SetupWizardApp.DEBUG) {
+                Log.d(TAG, "Hiding " + key + ", its activity is not installed");
+            }
+            page.setHidden(true);
+        }
+    }
+
     private void showHideSimMissingPage() {
         SimCardMissingPage simCardMissingPage =
                 (SimCardMissingPage) getPage(SimCardMissingPage.TAG);
@@ -135,7 +197,74 @@ public class TeslaSetupWizardData extends AbstractSetupData {
     private void showHideDateTimePage() {
         DateTimePage dateTimePage = (DateTimePage) getPage(DateTimePage.TAG);
         if (dateTimePage != null) {
-            dateTimePage.setHidden(mTimeZoneSet & mTimeSet);
+            dateTimePage.setHidden((mTimeZoneSet & mTimeSet) || mDateTimeSuggestionConfident);
+        }
+    }
+
+    private void suggestDateTime() {
+        if (mSuggestDateTimeTask != null) {
+            mPendingDateTimeSuggestion = true;
+            return;
+        }
+        final boolean queryTime = !mTimeSet && SetupWizardUtils.isNetworkConnected(mContext);
+        mSuggestDateTimeTask = new SuggestDateTimeTask(queryTime);
+        // Off the serial executor, a slow time server must not hold up other tasks
+        mSuggestDateTimeTask.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
+    }
+
+    private void onDateTimeSuggested(DateTimeSuggester.Suggestion suggestion) {
+        mSuggestDateTimeTask = null;
+        mSuggestedTime |= suggestion.hasTime();
+        DateTimePage dateTimePage = (DateTimePage) getPage(DateTimePage.TAG);
+        // Leave the page alone while the user is looking at it
+        if (dateTimePage != null && !isCurrentPage(dateTimePage) && !isFinished()) {
+            dateTimePage.applySuggestion(suggestion);
+            final boolean timeKnown = mSuggestedTime || mTimeSet;
+            // Decided again on every suggestion, the country it came from may have changed
+            final boolean confident = timeKnown && suggestion.getTimeZoneConfidence()
+                    == DateTimeSuggester.CONFIDENCE_HIGH;
+            if (confident != mDateTimeSuggestionConfident) {
+                mDateTimeSuggestionConfident = confident;
+                showHideDateTimePage();
+            }
+        }
+        if (mPendingDateTimeSuggestion) {
+            mPendingDateTimeSuggestion = false;
+            suggestDateTime();
+        }
+    }
+
+    private class SuggestDateTimeTask extends AsyncTask<Void, Void, DateTimeSuggester.Suggestion> {
+
+        private final boolean mQueryTime;
+
+        private SuggestDateTimeTask(boolean queryTime) {
+            mQueryTime = queryTime;
+        }
+
+        @Override
+        protected DateTimeSuggester.Suggestion doInBackground(Void... params) {
+            return DateTimeSuggester.suggest(mContext, Locale.getDefault(), mQueryTime);
+        }
+
+        @Override
+        protected void onPostExecute(DateTimeSuggester.Suggestion suggestion) {
+            if (SetupWizardApp.DEBUG) {
+                Log.d(TAG, "Date/time suggestion " + suggestion);
+            }
+            onDateTimeSuggested(suggestion);
+        }
+    }
+
+    private boolean isOwnDateTimeChange(Intent intent) {
+        DateTimePage dateTimePage = (DateTimePage) getPage(DateTimePage.TAG);
+        return dateTimePage != null && dateTimePage.isOwnChange(intent);
+    }
+
+    private void invalidateCaptivePortalChecks() {
+        WifiSetupPage wifiSetupPage = (WifiSetupPage) getPage(WifiSetupPage.TAG);
+        if (wifiSetupPage != null) {
+            wifiSetupPage.onConnectivityChanged();
         }
     }
 
@@ -151,6 +280,7 @@ public class TeslaSetupWizardData extends AbstractSetupData {
         if (SetupWizardUtils.hasTelephony(mContext)) {
             filter.addAction(TelephonyIntents.ACTION_SIM_STATE_CHANGED);
             filter.addAction(TelephonyIntents.ACTION_ANY_DATA_CONNECTION_STATE_CHANGED);
+            filter.addAction(TelephonyIntents.ACTION_SERVICE_STATE_CHANGED);
         }
         filter.addAction(ConnectivityManager.CONNECTIVITY_ACTION);
         filter.addAction(Intent.ACTION_TIMEZONE_CHANGED);
@@ -160,6 +290,13 @@ public class TeslaSetupWizardData extends AbstractSetupData {
         return filter;
     }
 
+    private String getNetworkCountry() {
+        if (!SetupWizardUtils.hasTelephony(mContext)) {
+            return null;
+        }
+        return TelephonyManager.from(mContext).getNetworkCountryIso();
+    }
+
     // We only care that one sim is inserted
     private boolean isSimInserted() {
         TelephonyManager tm = TelephonyManager.from(mContext);
@@ -30,29 +30,42 @@ import android.content.res.Resources;
 import android.os.AsyncTask;
 import android.os.Bundle;
 import android.os.Handler;
-import android.telephony.SubscriptionInfo;
-import android.telephony.SubscriptionManager;
-import android.telephony.TelephonyManager;
+import android.os.SystemClock;
+import android.text.TextPaint;
+import android.util.Log;
 import android.view.View;
-import android.widget.ArrayAdapter;
+import android.view.ViewTreeObserver;
 import android.widget.NumberPicker;
 import android.widget.Toast;
 
-import com.android.internal.telephony.MccTable;
 import com.tesla.setupwizard.R;
 import com.tesla.setupwizard.SetupWizardApp;
 import com.tesla.setupwizard.ui.LocalePicker;
 import com.tesla.setupwizard.ui.SetupPageFragment;
+import com.tesla.setupwizard.util.IntentRegistry;
+import com.tesla.setupwizard.util.LocaleModel;
 import com.tesla.setupwizard.util.SetupWizardUtils;
+import com.tesla.setupwizard.util.SimLocaleResolver;
 
-import java.util.List;
 import java.util.Locale;
 
 public class WelcomePage extends SetupPage {
 
     public static final String TAG = "WelcomePage";
 
-    private static final String ACTION_EMERGENCY_DIAL = "com.android.phone.EmergencyDialer.DIAL";
+    // For changes that don't come from scrolling the wheel, like taps or keys
+    private static final int LOCALE_COMMIT_DELAY_MILLIS = 1000;
+
+    // Strings every locale switch redraws right away
+    private static final int[] PREWARM_STRING_IDS = {
+            R.string.setup_welcome,
+            R.string.next,
+            R.string.emergency_call,
+            R.string.setup_unlock,
+            R.string.skip,
+            R.string.loading,
+            R.string.sim_locale_changed
+    };
 
     private WelcomeFragment mWelcomeFragment;
 
@@ -85,7 +98,11 @@ public class WelcomePage extends SetupPage {
 
     @Override
     public boolean doPreviousAction() {
-        Intent intent = new Intent(ACTION_EMERGENCY_DIAL);
+        if (IntentRegistry.isMissing(IntentRegistry.TARGET_EMERGENCY_DIALER)) {
+            return true;
+        }
+        Intent intent = IntentRegistry.newIntent(mContext,
+                IntentRegistry.TARGET_EMERGENCY_DIALER);
         intent.setFlags(Intent.FLAG_ACTIVITY_NEW_TASK
                 | Intent.FLAG_ACTIVITY_EXCLUDE_FROM_RECENTS);
         ActivityOptions options =
@@ -141,31 +158,71 @@ public class WelcomePage extends SetupPage {
         }
     }
 
-    public static class WelcomeFragment extends SetupPageFragment {
+    public static class WelcomeFragment extends SetupPageFragment
+            implements LocaleModel.Callback, SimLocaleResolver.Callback {
 
-        private ArrayAdapter<com.android.internal.app.LocalePicker.LocaleInfo> mLocaleAdapter;
+        private LocaleModel mLocaleModel;
         private Locale mInitialLocale;
         private Locale mCurrentLocale;
-        private int[] mAdapterIndices;
         private boolean mIgnoreSimLocale;
         private LocalePicker mLanguagePicker;
-        private FetchUpdateSimLocaleTask mFetchUpdateSimLocaleTask;
+        // Only used when the locales are grouped by language
+        private LocalePicker mRegionPicker;
+        private boolean mGroupLocales;
         private final Handler mHandler = new Handler();
         private boolean mPendingLocaleUpdate;
         private boolean mPaused = true;
 
+        private PrewarmLocaleTask mPrewarmLocaleTask;
+        private Locale mPrewarmedLocale;
+        private boolean mCommitWhenPrewarmed;
+        private int mPickerScrollState = LocalePicker.OnScrollListener.SCROLL_STATE_IDLE;
+        // When the last locale commit was made, to time the redraw in the new locale
+        private long mLocaleCommitTime;
+
         private final Runnable mUpdateLocale = new Runnable() {
             public void run() {
-                if (mCurrentLocale != null) {
-                    mLanguagePicker.setEnabled(false);
-                    com.android.internal.app.LocalePicker.updateLocale(mCurrentLocale);
+                if (mCurrentLocale == null) {
+                    return;
+                }
+                if (!mCurrentLocale.equals(mPrewarmedLocale)) {
+                    // Commit as soon as the resources are ready
+                    mCommitWhenPrewarmed = true;
+                    return;
+                }
+                commitLocale();
+            }
+        };
+
+        private final LocalePicker.OnScrollListener mPickerScrollListener =
+                new LocalePicker.OnScrollListener() {
+            @Override
+            public void onScrollStateChange(LocalePicker view, int scrollState) {
+                mPickerScrollState = scrollState;
+                if (scrollState == SCROLL_STATE_TOUCH_SCROLL) {
+                    mIgnoreSimLocale = true;
+                    // The user is still choosing
+                    mHandler.removeCallbacks(mUpdateLocale);
+                    mCommitWhenPrewarmed = false;
+                } else if (scrollState == SCROLL_STATE_IDLE) {
+                    // The wheel has settled on its final value
+                    mHandler.removeCallbacks(mUpdateLocale);
+                    mUpdateLocale.run();
                 }
             }
         };
 
         @Override
         protected void initializePage() {
+            if (mLocaleCommitTime != 0) {
+                logLocaleSwitchLatency();
+            }
             mLanguagePicker = (LocalePicker) mRootView.findViewById(R.id.locale_list);
+            mRegionPicker = (LocalePicker) mRootView.findViewById(R.id.region_list);
+            // A layout without the region wheel can only show the flat list
+            mGroupLocales = mRegionPicker != null
+                    && getResources().getBoolean(R.bool.group_locales_by_language);
+            mPickerScrollState = LocalePicker.OnScrollListener.SCROLL_STATE_IDLE;
             loadLanguages();
             final boolean brandedDevice = getResources().getBoolean(
                     R.bool.branded_device);
@@ -175,130 +232,217 @@ public class WelcomePage extends SetupPage {
         }
 
         private void loadLanguages() {
-            mLocaleAdapter = com.android.internal.app.LocalePicker.constructAdapter(getActivity(), R.layout.locale_picker_item, R.id.locale);
             mCurrentLocale = mInitialLocale = Locale.getDefault();
             fetchAndUpdateSimLocale();
-            mAdapterIndices = new int[mLocaleAdapter.getCount()];
-            int currentLocaleIndex = 0;
-            String [] labels = new String[mLocaleAdapter.getCount()];
-            for (int i=0; i<mAdapterIndices.length; i++) {
-                com.android.internal.app.LocalePicker.LocaleInfo localLocaleInfo = mLocaleAdapter.getItem(i);
-                Locale localLocale = localLocaleInfo.getLocale();
-                if (localLocale.equals(mCurrentLocale)) {
-                    currentLocaleIndex = i;
-                }
-                mAdapterIndices[i] = i;
-                labels[i] = localLocaleInfo.getLabel();
+            // Usually already built in the background since the app started
+            mLanguagePicker.setVisibility(View.INVISIBLE);
+            LocaleModel.load(getActivity(), this);
+        }
+
+        @Override
+        public void onLocaleModelLoaded(LocaleModel model) {
+            mLocaleModel = model;
+            if (mLanguagePicker == null || getActivity() == null) {
+                return;
+            }
+            final int currentLocaleIndex = Math.max(model.indexOf(mCurrentLocale), 0);
+            mLanguagePicker.setVisibility(View.VISIBLE);
+            if (mGroupLocales) {
+                final int language = model.getLanguageOf(currentLocaleIndex);
+                mLanguagePicker.setDisplayedValues(model.getLanguageLabels(), language);
+                showRegions(language, model.getRegionOf(currentLocaleIndex));
+                mRegionPicker.setDescendantFocusability(NumberPicker.FOCUS_BLOCK_DESCENDANTS);
+                mRegionPicker.setOnValueChangedListener(new LocalePicker.OnValueChangeListener() {
+                    public void onValueChange(LocalePicker picker, int oldVal, int newVal) {
+                        setLocaleFromPicker();
+                    }
+                });
+                mRegionPicker.setOnScrollListener(mPickerScrollListener);
+            } else {
+                String [] labels = model.getLabels();
+                mLanguagePicker.setDisplayedValues(labels);
+                mLanguagePicker.setMaxValue(labels.length - 1);
+                mLanguagePicker.setValue(currentLocaleIndex);
             }
-            mLanguagePicker.setDisplayedValues(labels);
-            mLanguagePicker.setMaxValue(labels.length - 1);
-            mLanguagePicker.setValue(currentLocaleIndex);
             mLanguagePicker.setDescendantFocusability(NumberPicker.FOCUS_BLOCK_DESCENDANTS);
             mLanguagePicker.setOnValueChangedListener(new LocalePicker.OnValueChangeListener() {
                 public void onValueChange(LocalePicker picker, int oldVal, int newVal) {
-                    setLocaleFromPicker();
-                }
-            });
-            mLanguagePicker.setOnScrollListener(new LocalePicker.OnScrollListener() {
-                @Override
-                public void onScrollStateChange(LocalePicker view, int scrollState) {
-                    if (scrollState == SCROLL_STATE_TOUCH_SCROLL) {
-                        mIgnoreSimLocale = true;
+                    if (mGroupLocales) {
+                        // A new language starts at its first region
+                        showRegions(newVal, 0);
                     }
+                    setLocaleFromPicker();
                 }
             });
+            mLanguagePicker.setOnScrollListener(mPickerScrollListener);
+        }
+
+        private void showRegions(int language, int region) {
+            final String[] regions = mLocaleModel.getRegionLabels(language);
+            mRegionPicker.setDisplayedValues(regions, region);
+            // A language spoken in a single region needs no second wheel
+            mRegionPicker.setVisibility(regions.length > 1 ? View.VISIBLE : View.GONE);
+        }
+
+        private Locale getPickerLocale() {
+            if (mGroupLocales) {
+                return mLocaleModel.getLocale(mLanguagePicker.getValue(),
+                        mRegionPicker.getValue());
+            }
+            return mLocaleModel.getLocale(mLanguagePicker.getValue());
+        }
+
+        private void setPickersEnabled(boolean enabled) {
+            if (mLanguagePicker != null) {
+                mLanguagePicker.setEnabled(enabled);
+            }
+            if (mRegionPicker != null) {
+                mRegionPicker.setEnabled(enabled);
+            }
         }
 
         private void setLocaleFromPicker() {
             mIgnoreSimLocale = true;
-            int i = mAdapterIndices[mLanguagePicker.getValue()];
-            final com.android.internal.app.LocalePicker.LocaleInfo localLocaleInfo = mLocaleAdapter.getItem(i);
-            onLocaleChanged(localLocaleInfo.getLocale());
+            onLocaleChanged(getPickerLocale());
         }
 
         private void onLocaleChanged(Locale paramLocale) {
-            mLanguagePicker.setEnabled(true);
-            Resources localResources = getActivity().getResources();
-            Configuration localConfiguration1 = localResources.getConfiguration();
-            Configuration localConfiguration2 = new Configuration();
-            localConfiguration2.locale = paramLocale;
-            localResources.updateConfiguration(localConfiguration2, null);
-            localResources.updateConfiguration(localConfiguration1, null);
+            setPickersEnabled(true);
             mHandler.removeCallbacks(mUpdateLocale);
+            mCommitWhenPrewarmed = false;
             mCurrentLocale = paramLocale;
-            mHandler.postDelayed(mUpdateLocale, 1000);
+            prewarmLocale(paramLocale);
+            // While the wheel moves, the commit waits for it to go idle
+            if (mPickerScrollState == LocalePicker.OnScrollListener.SCROLL_STATE_IDLE) {
+                mHandler.postDelayed(mUpdateLocale, LOCALE_COMMIT_DELAY_MILLIS);
+            }
         }
 
-        @Override
-        protected int getLayoutResource() {
-            return R.layout.setup_welcome_page;
+        private void prewarmLocale(Locale locale) {
+            if (locale.equals(mPrewarmedLocale)) {
+                return;
+            }
+            if (mPrewarmLocaleTask != null) {
+                mPrewarmLocaleTask.cancel(false);
+            }
+            mPrewarmLocaleTask = new PrewarmLocaleTask(getActivity(), locale);
+            mPrewarmLocaleTask.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
         }
 
-        public void fetchAndUpdateSimLocale() {
-            if (mIgnoreSimLocale || isDetached()) {
+        private void commitLocale() {
+            mCommitWhenPrewarmed = false;
+            // Scrolling back to where we started doesn't need a configuration change
+            if (mCurrentLocale.equals(Locale.getDefault())) {
                 return;
             }
-            if (mPaused) {
-                mPendingLocaleUpdate = true;
+            setPickersEnabled(false);
+            mLocaleCommitTime = SystemClock.elapsedRealtime();
+            com.android.internal.app.LocalePicker.updateLocale(mCurrentLocale);
+        }
+
+        private void logLocaleSwitchLatency() {
+            final long commitTime = mLocaleCommitTime;
+            mLocaleCommitTime = 0;
+            if (!SetupWizardApp.DEBUG) {
                 return;
             }
-            if (mFetchUpdateSimLocaleTask != null) {
-                mFetchUpdateSimLocaleTask.cancel(true);
-            }
-            mFetchUpdateSimLocaleTask = new FetchUpdateSimLocaleTask();
-            mFetchUpdateSimLocaleTask.execute();
+            mRootView.getViewTreeObserver().addOnPreDrawListener(
+                    new ViewTreeObserver.OnPreDrawListener() {
+                        @Override
+                        public boolean onPreDraw() {
+                            mRootView.getViewTreeObserver().removeOnPreDrawListener(this);
+                            Log.d(TAG, "Locale switch redrawn after "
+                                    + (SystemClock.elapsedRealtime() - commitTime) + "ms");
+                            return true;
+                        }
+                    });
         }
 
-        private class FetchUpdateSimLocaleTask extends AsyncTask<Void, Void, Locale> {
+        /**
+         * Loads the strings and fonts the next screen needs in the target locale,
+         * so the switch doesn't stall on them once it is committed.
+         */
+        private class PrewarmLocaleTask extends AsyncTask<Void, Void, Void> {
+            private final Context mContext;
+            private final Locale mLocale;
+
+            public PrewarmLocaleTask(Context context, Locale locale) {
+                mContext = context.getApplicationContext();
+                mLocale = locale;
+            }
+
             @Override
-            protected Locale doInBackground(Void... params) {
-                Locale locale = null;
-                Activity activity = getActivity();
-                if (activity != null) {
-                    // If the sim is currently pin locked, return
-                    TelephonyManager telephonyManager = (TelephonyManager)
-                            activity.getSystemService(Context.TELEPHONY_SERVICE);
-                    int state = telephonyManager.getSimState();
-                    if(state == TelephonyManager.SIM_STATE_PIN_REQUIRED ||
-                            state == TelephonyManager.SIM_STATE_PUK_REQUIRED) {
-                        return null;
+            protected Void doInBackground(Void... params) {
+                final Configuration config =
+                        new Configuration(mContext.getResources().getConfiguration());
+                config.setLocale(mLocale);
+                final Resources res = mContext.createConfigurationContext(config).getResources();
+                final TextPaint paint = new TextPaint();
+                for (int id : PREWARM_STRING_IDS) {
+                    if (isCancelled()) {
+                        break;
                     }
+                    // Measuring pulls in the fonts for the locale's script
+                    paint.measureText(res.getText(id).toString());
+                }
+                return null;
+            }
 
-                    final SubscriptionManager subscriptionManager =
-                            SubscriptionManager.from(activity);
-                    List<SubscriptionInfo> activeSubs =
-                            subscriptionManager.getActiveSubscriptionInfoList();
-                    if (activeSubs == null || activeSubs.isEmpty()) {
-                        return null;
-                    }
+            @Override
+            protected void onPostExecute(Void result) {
+                if (mPrewarmLocaleTask == this) {
+                    mPrewarmLocaleTask = null;
+                }
+                mPrewarmedLocale = mLocale;
+                if (mCommitWhenPrewarmed && mLocale.equals(mCurrentLocale)) {
+                    commitLocale();
+                }
+            }
+        }
 
-                    // Fetch locale for active sim's MCC
-                    int mcc = activeSubs.get(0).getMcc();
-                    locale = MccTable.getLocaleFromMcc(activity, mcc, null);
+        private void showLocale(Locale locale) {
+            if (mLocaleModel == null || mLanguagePicker == null) {
+                return;
+            }
+            final int index = mLocaleModel.indexOf(locale);
+            if (index == -1) {
+                return;
+            }
+            if (mGroupLocales) {
+                final int language = mLocaleModel.getLanguageOf(index);
+                mLanguagePicker.setValue(language);
+                showRegions(language, mLocaleModel.getRegionOf(index));
+            } else {
+                mLanguagePicker.setValue(index);
+            }
+        }
 
-                    // If that fails, fall back to preferred languages reported
-                    // by the sim
-                    if (locale == null) {
-                        String localeString = telephonyManager.getLocaleFromDefaultSim();
-                        if (localeString != null) {
-                            locale = Locale.forLanguageTag(localeString);
+        @Override
+        protected int getLayoutResource() {
+            return R.layout.setup_welcome_page;
+        }
 
-                        }
-                    }
-                }
-                return locale;
+        public void fetchAndUpdateSimLocale() {
+            if (mIgnoreSimLocale || isDetached()) {
+                return;
             }
+            if (mPaused) {
+                mPendingLocaleUpdate = true;
+                return;
+            }
+            SimLocaleResolver.resolve(getActivity(), this);
+        }
 
-            @Override
-            protected void onPostExecute(Locale simLocale) {
-                if (simLocale != null && !simLocale.equals(mCurrentLocale)) {
-                    if (!mIgnoreSimLocale && !isDetached()) {
-                        String label = getString(R.string.sim_locale_changed,
-                                simLocale.getDisplayName());
-                        Toast.makeText(getActivity(), label, Toast.LENGTH_SHORT).show();
-                        onLocaleChanged(simLocale);
-                        mIgnoreSimLocale = true;
-                    }
+        @Override
+        public void onSimLocaleResolved(Locale simLocale) {
+            if (simLocale != null && !simLocale.equals(mCurrentLocale)) {
+                if (!mIgnoreSimLocale && !isDetached() && getActivity() != null) {
+                    String label = getString(R.string.sim_locale_changed,
+                            simLocale.getDisplayName());
+                    Toast.makeText(getActivity(), label, Toast.LENGTH_SHORT).show();
+                    onLocaleChanged(simLocale);
+                    showLocale(simLocale);
+                    mIgnoreSimLocale = true;
                 }
             }
         }
@@ -309,13 +453,20 @@ public class WelcomePage extends SetupPage {
             mPaused = true;
         }
 
+        @Override
+        public void onDestroyView() {
+            super.onDestroyView();
+            LocaleModel.cancelLoad(this);
+            SimLocaleResolver.cancel(this);
+            mLanguagePicker = null;
+            mRegionPicker = null;
+        }
+
         @Override
         public void onResume() {
             super.onResume();
             mPaused = false;
-            if (mLanguagePicker != null) {
-                mLanguagePicker.setEnabled(true);
-            }
+            setPickersEnabled(true);
             if (mPendingLocaleUpdate) {
                 mPendingLocaleUpdate = false;
                 fetchAndUpdateSimLocale();
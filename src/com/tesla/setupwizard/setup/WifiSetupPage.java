@@ -17,55 +17,62 @@
 package com.tesla.setupwizard.setup;
 
 import android.app.Activity;
-import android.app.ActivityOptions;
 import android.app.FragmentManager;
 import android.content.Context;
 import android.content.Intent;
 import android.net.CaptivePortal;
 import android.net.ConnectivityManager;
 import android.net.ICaptivePortal;
-import android.os.Bundle;
-import android.os.Handler;
-import android.provider.Settings;
+import android.net.LinkProperties;
+import android.net.Network;
+import android.net.NetworkInfo;
+import android.net.wifi.WifiInfo;
+import android.net.wifi.WifiManager;
+import android.os.AsyncTask;
+import android.os.SystemClock;
 import android.util.Log;
 
 import com.tesla.setupwizard.R;
 import com.tesla.setupwizard.SetupWizardApp;
-import com.tesla.setupwizard.ui.LoadingFragment;
-import com.tesla.setupwizard.ui.SetupPageFragment;
+import com.tesla.setupwizard.util.CaptivePortalProber;
+import com.tesla.setupwizard.util.IntentRegistry;
 import com.tesla.setupwizard.util.SetupWizardUtils;
 
-import java.io.IOException;
-import java.net.HttpURLConnection;
-import java.net.MalformedURLException;
-import java.net.URL;
+import java.util.HashMap;
 import java.util.Random;
 
-public class WifiSetupPage extends SetupPage {
+public class WifiSetupPage extends ActivityLaunchPage {
 
     public static final String TAG = "WifiSetupPage";
 
-    private static final String DEFAULT_SERVER = "clients3.google.com";
-    private static final int CAPTIVE_PORTAL_SOCKET_TIMEOUT_MS = 10000;
+    // How long a network that passed the portal check is trusted without probing again
+    private static final long VALIDATED_NETWORK_TTL_MS = 2 * 60 * 1000;
 
-    private LoadingFragment mLoadingFragment;
+    private boolean mIsCaptivePortal = false;
 
-    private URL mCaptivePortalUrl;
+    private CheckCaptivePortalTask mCheckCaptivePortalTask;
 
-    private boolean mIsCaptivePortal = false;
+    // When each network last passed the portal check, by network identity
+    private final HashMap<String, Long> mValidatedNetworks = new HashMap<String, Long>();
 
-    private final Handler mHandler = new Handler();
+    // Set while the wifi picker is in front, connecting there starts the portal check
+    private boolean mWifiSetupShowing;
+    // Set once the picker returned and the page waits on the running check
+    private boolean mAwaitingCaptivePortalCheck;
+    // A portal found while the picker was in front, only trusted until it is shown again
+    private String mPortalNetworkKey;
 
     private String mResponseToken;
 
     private Runnable mFinishCaptivePortalCheckRunnable = new Runnable() {
         @Override
         public void run() {
-            if (mIsCaptivePortal) {
+            if (mIsCaptivePortal
+                    && !IntentRegistry.isMissing(IntentRegistry.TARGET_CAPTIVE_PORTAL)) {
                 try {
                     mResponseToken = String.valueOf(new Random().nextLong());
-                    final Intent intent = new Intent(
-                            ConnectivityManager.ACTION_CAPTIVE_PORTAL_SIGN_IN);
+                    final Intent intent = IntentRegistry.newIntent(mContext,
+                            IntentRegistry.TARGET_CAPTIVE_PORTAL);
                     intent.putExtra(Intent.EXTRA_TEXT, mResponseToken);
                     intent.putExtra(ConnectivityManager.EXTRA_NETWORK,
                             ConnectivityManager.from(mContext)
@@ -81,13 +88,8 @@ public class WifiSetupPage extends SetupPage {
                             R.color.primary_dark));
                     intent.putExtra("progress_bar_color", mContext.getResources().getColor(
                             R.color.accent));
-                    ActivityOptions options =
-                            ActivityOptions.makeCustomAnimation(mContext,
-                                    android.R.anim.fade_in,
-                                    android.R.anim.fade_out);
-                    mLoadingFragment.startActivityForResult(intent,
-                            SetupWizardApp.REQUEST_CODE_SETUP_CAPTIVE_PORTAL,
-                            options.toBundle());
+                    startActivityForResult(intent,
+                            SetupWizardApp.REQUEST_CODE_SETUP_CAPTIVE_PORTAL);
                 } catch (Exception e) {
                     //Oh well
                     Log.e(TAG, "No captive portal activity found" + e);
@@ -105,31 +107,6 @@ public class WifiSetupPage extends SetupPage {
 
     public WifiSetupPage(Context context, SetupDataCallbacks callbacks) {
         super(context, callbacks);
-        String server = Settings.Global.getString(context.getContentResolver(), "captive_portal_server");
-        if (server == null) server = DEFAULT_SERVER;
-        try {
-            mCaptivePortalUrl = new URL("http://" + server + "/generate_204");
-        } catch (MalformedURLException e) {
-            Log.e(TAG, "Not a valid url" + e);
-        }
-    }
-
-    @Override
-    public SetupPageFragment getFragment(FragmentManager fragmentManager, int action) {
-        mLoadingFragment = (LoadingFragment)fragmentManager.findFragmentByTag(getKey());
-        if (mLoadingFragment == null) {
-            Bundle args = new Bundle();
-            args.putString(Page.KEY_PAGE_ARGUMENT, getKey());
-            args.putInt(Page.KEY_PAGE_ACTION, action);
-            mLoadingFragment = new LoadingFragment();
-            mLoadingFragment.setArguments(args);
-        }
-        return mLoadingFragment;
-    }
-
-    @Override
-    public int getNextButtonTitleResId() {
-        return R.string.skip;
     }
 
     @Override
@@ -137,11 +114,6 @@ public class WifiSetupPage extends SetupPage {
         return TAG;
     }
 
-    @Override
-    public int getTitleResId() {
-        return R.string.loading;
-    }
-
 
     @Override
     public void doLoadAction(FragmentManager fragmentManager, int action) {
@@ -152,6 +124,7 @@ public class WifiSetupPage extends SetupPage {
     @Override
     public boolean onActivityResult(int requestCode, int resultCode, Intent data) {
         if (requestCode == SetupWizardApp.REQUEST_CODE_SETUP_WIFI) {
+            mWifiSetupShowing = false;
             if (resultCode == Activity.RESULT_CANCELED) {
                         getCallbacks().onPreviousPage();
             } else if (resultCode == Activity.RESULT_OK) {
@@ -180,61 +153,158 @@ public class WifiSetupPage extends SetupPage {
         return true;
     }
 
+    /**
+     * Forgets which networks passed the portal check, called when connectivity changes.
+     * While the wifi picker is in front a newly connected network is checked right away,
+     * so the answer is there by the time the picker returns.
+     */
+    public void onConnectivityChanged() {
+        mValidatedNetworks.clear();
+        if (mWifiSetupShowing) {
+            checkAheadOfResult();
+        }
+    }
+
+    private void checkAheadOfResult() {
+        final ConnectivityManager cm = ConnectivityManager.from(mContext);
+        final Network network = cm.getNetworkForType(ConnectivityManager.TYPE_WIFI);
+        final NetworkInfo networkInfo = network != null ? cm.getNetworkInfo(network) : null;
+        if (networkInfo == null || !networkInfo.isConnected()) {
+            return;
+        }
+        final String networkKey = getNetworkKey(network);
+        if (mCheckCaptivePortalTask != null) {
+            if (networkKey.equals(mCheckCaptivePortalTask.mNetworkKey)) {
+                return;
+            }
+            // The picker moved on to another network. Interrupting the check drops
+            // its probes, so they don't hold up the next one
+            mCheckCaptivePortalTask.cancel(true);
+            mCheckCaptivePortalTask = null;
+        }
+        if (networkKey.equals(mPortalNetworkKey) || isRecentlyValidated(networkKey)) {
+            return;
+        }
+        if (SetupWizardApp.DEBUG) {
+            Log.d(TAG, "Checking " + networkKey + " ahead of the wifi result");
+        }
+        startCaptivePortalCheck(network, networkKey);
+    }
+
     private void checkForCaptivePortal() {
-        new Thread() {
-            @Override
-            public void run() {
-                mIsCaptivePortal = isCaptivePortal();
-                mHandler.post(mFinishCaptivePortalCheckRunnable);
+        final Network network = ConnectivityManager.from(mContext)
+                .getNetworkForType(ConnectivityManager.TYPE_WIFI);
+        final String networkKey = getNetworkKey(network);
+        if (mCheckCaptivePortalTask != null) {
+            if (networkKey != null && networkKey.equals(mCheckCaptivePortalTask.mNetworkKey)) {
+                // Started when the network connected, wait for it to finish
+                mAwaitingCaptivePortalCheck = true;
+                return;
+            }
+            // Interrupting it drops its probes, so they don't hold up the next check
+            mCheckCaptivePortalTask.cancel(true);
+            mCheckCaptivePortalTask = null;
+        }
+        if (networkKey != null && networkKey.equals(mPortalNetworkKey)) {
+            if (SetupWizardApp.DEBUG) {
+                Log.d(TAG, "Already checked " + networkKey + ", portal");
             }
-        }.start();
+            finishCaptivePortalCheck(true);
+            return;
+        }
+        if (isRecentlyValidated(networkKey)) {
+            if (SetupWizardApp.DEBUG) {
+                Log.d(TAG, "Already checked " + networkKey + ", not a portal");
+            }
+            finishCaptivePortalCheck(false);
+            return;
+        }
+        mAwaitingCaptivePortalCheck = true;
+        startCaptivePortalCheck(network, networkKey);
     }
 
-    // Don't run on UI thread
-    private boolean isCaptivePortal() {
-        if (mCaptivePortalUrl == null) return false;
-        HttpURLConnection urlConnection = null;
-        try {
-            urlConnection = (HttpURLConnection) mCaptivePortalUrl.openConnection();
-            urlConnection.setInstanceFollowRedirects(false);
-            urlConnection.setConnectTimeout(CAPTIVE_PORTAL_SOCKET_TIMEOUT_MS);
-            urlConnection.setReadTimeout(CAPTIVE_PORTAL_SOCKET_TIMEOUT_MS);
-            urlConnection.setUseCaches(false);
-            urlConnection.getInputStream();
-            // We got a valid response, but not from the real google
-            final int responseCode = urlConnection.getResponseCode();
-            if (responseCode == 408 || responseCode == 504) {
-                // If we timeout here, we'll try and go through captive portal login
-                return true;
+    private boolean isRecentlyValidated(String networkKey) {
+        final Long validatedTime = networkKey != null ? mValidatedNetworks.get(networkKey) : null;
+        return validatedTime != null
+                && SystemClock.elapsedRealtime() - validatedTime < VALIDATED_NETWORK_TTL_MS;
+    }
+
+    private void startCaptivePortalCheck(Network network, String networkKey) {
+        mCheckCaptivePortalTask = new CheckCaptivePortalTask(network, networkKey);
+        mCheckCaptivePortalTask.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
+    }
+
+    private void finishCaptivePortalCheck(boolean isCaptivePortal) {
+        mAwaitingCaptivePortalCheck = false;
+        mIsCaptivePortal = isCaptivePortal;
+        mFinishCaptivePortalCheckRunnable.run();
+    }
+
+    /**
+     * The network together with the access point and addresses it is on, or null
+     * if there is no wifi network.
+     */
+    private String getNetworkKey(Network network) {
+        if (network == null) {
+            return null;
+        }
+        final StringBuilder key = new StringBuilder(network.toString());
+        final WifiInfo wifiInfo = ((WifiManager) mContext.getSystemService(Context.WIFI_SERVICE))
+                .getConnectionInfo();
+        if (wifiInfo != null) {
+            key.append('|').append(wifiInfo.getSSID()).append('|').append(wifiInfo.getBSSID());
+        }
+        final LinkProperties linkProperties =
+                ConnectivityManager.from(mContext).getLinkProperties(network);
+        if (linkProperties != null) {
+            key.append('|').append(linkProperties.getLinkAddresses());
+        }
+        return key.toString();
+    }
+
+    private class CheckCaptivePortalTask extends AsyncTask<Void, Void, Integer> {
+        private final Network mNetwork;
+        private final String mNetworkKey;
+
+        public CheckCaptivePortalTask(Network network, String networkKey) {
+            mNetwork = network;
+            mNetworkKey = networkKey;
+        }
+
+        @Override
+        protected Integer doInBackground(Void... params) {
+            return CaptivePortalProber.fromSettings(mContext).probe(mNetwork);
+        }
+
+        @Override
+        protected void onPostExecute(Integer result) {
+            mCheckCaptivePortalTask = null;
+            // Only a clean pass is kept, a portal has to be checked again after login
+            if (result == CaptivePortalProber.RESULT_VALIDATED && mNetworkKey != null) {
+                mValidatedNetworks.put(mNetworkKey, SystemClock.elapsedRealtime());
+            } else if (result == CaptivePortalProber.RESULT_PORTAL && mNetworkKey != null) {
+                mPortalNetworkKey = mNetworkKey;
             }
-            return urlConnection.getResponseCode() != 204;
-        } catch (IOException e) {
-            Log.e(TAG, "Captive portal check - probably not a portal: exception "
-                    + e);
-            return false;
-        } finally {
-            if (urlConnection != null) {
-                urlConnection.disconnect();
+            if (mAwaitingCaptivePortalCheck) {
+                // Without a clear answer, carry on like there is no portal
+                finishCaptivePortalCheck(result == CaptivePortalProber.RESULT_PORTAL);
             }
         }
     }
 
     private void launchWifiSetup() {
+        mWifiSetupShowing = true;
+        mAwaitingCaptivePortalCheck = false;
+        mPortalNetworkKey = null;
         SetupWizardUtils.tryEnablingWifi(mContext);
-        Intent intent = new Intent(SetupWizardApp.ACTION_SETUP_WIFI);
-        if (SetupWizardUtils.hasLeanback(mContext)) {
-            intent.setComponent(SetupWizardUtils.mTvwifisettingsActivity);
-        }
+        Intent intent = IntentRegistry.newIntent(mContext, IntentRegistry.TARGET_WIFI);
         intent.putExtra(SetupWizardApp.EXTRA_FIRST_RUN, true);
         intent.putExtra(SetupWizardApp.EXTRA_ALLOW_SKIP, true);
         intent.putExtra(SetupWizardApp.EXTRA_USE_IMMERSIVE, true);
         intent.putExtra(SetupWizardApp.EXTRA_THEME, SetupWizardApp.EXTRA_MATERIAL_LIGHT);
         intent.putExtra(SetupWizardApp.EXTRA_AUTO_FINISH, false);
-        ActivityOptions options =
-                ActivityOptions.makeCustomAnimation(mContext,
-                        android.R.anim.fade_in,
-                        android.R.anim.fade_out);
-        mLoadingFragment.startActivityForResult(intent,
-                SetupWizardApp.REQUEST_CODE_SETUP_WIFI, options.toBundle());
+        startActivityForResult(intent, SetupWizardApp.REQUEST_CODE_SETUP_WIFI);
+        // Already on a network, the picker may just be confirmed
+        checkAheadOfResult();
     }
 }
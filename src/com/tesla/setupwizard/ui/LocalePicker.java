@@ -17,6 +17,7 @@
 package com.tesla.setupwizard.ui;
 
 import com.tesla.setupwizard.R;
+import com.tesla.setupwizard.SetupWizardApp;
 
 import android.annotation.Widget;
 import android.content.Context;
@@ -27,15 +28,25 @@ import android.graphics.Color;
 import android.graphics.Paint;
 import android.graphics.Paint.Align;
 import android.graphics.Rect;
+import android.graphics.Typeface;
 import android.graphics.drawable.Drawable;
+import android.os.AsyncTask;
 import android.os.Bundle;
+import android.os.Looper;
+import android.os.MessageQueue;
+import android.os.SystemClock;
+import android.text.BoringLayout;
 import android.text.InputFilter;
 import android.text.InputType;
+import android.text.Layout;
 import android.text.Spanned;
+import android.text.StaticLayout;
+import android.text.TextPaint;
 import android.text.TextUtils;
 import android.text.method.NumberKeyListener;
 import android.util.AttributeSet;
-import android.util.SparseArray;
+import android.util.Log;
+import android.util.LruCache;
 import android.util.TypedValue;
 import android.view.KeyEvent;
 import android.view.LayoutInflater;
@@ -57,10 +68,14 @@ import android.widget.LinearLayout;
 import android.widget.Scroller;
 import android.widget.TextView;
 
+import java.text.Normalizer;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
 import java.util.Locale;
+import java.util.regex.Pattern;
 
 import libcore.icu.LocaleData;
 
@@ -95,6 +110,20 @@ import libcore.icu.LocaleData;
 @Widget
 public class LocalePicker extends LinearLayout {
 
+    private static final String TAG = LocalePicker.class.getSimpleName();
+
+    /**
+     * The number of displayed values measured for the first width estimate.
+     */
+    private static final int MAX_WIDTH_SAMPLE_SIZE = 16;
+
+    /**
+     * Widest displayed value by label set, text size and typeface, shared by all
+     * pickers as the welcome page is recreated with the same labels.
+     */
+    private static final LruCache<MaxTextWidthKey, Integer> sMaxTextWidthCache =
+            new LruCache<MaxTextWidthKey, Integer>(4);
+
     /**
      * The number of items show in the selector wheel.
      */
@@ -110,6 +139,11 @@ public class LocalePicker extends LinearLayout {
      */
     private static int sSelectorMiddleItemIndex = sSelectorWheelItemCount / 2;
 
+    /**
+     * The number of off screen label layouts kept above and below the wheel.
+     */
+    private static final int LABEL_CACHE_MARGIN = 4;
+
     /**
      * The coefficient by which to adjust (divide) the max fling velocity.
      */
@@ -249,6 +283,17 @@ public class LocalePicker extends LinearLayout {
      */
     private final boolean mComputeMaxWidth;
 
+    /**
+     * Measures every displayed value after the first layout used an estimate.
+     */
+    private MeasureMaxWidthTask mMeasureMaxWidthTask;
+
+    /**
+     * Set when the values or range changed, the max width is worked out once at
+     * the next measure however many of them changed.
+     */
+    private boolean mMaxWidthDirty;
+
     /**
      * The height of the text.
      */
@@ -264,6 +309,11 @@ public class LocalePicker extends LinearLayout {
      */
     private String[] mDisplayedValues;
 
+    /**
+     * Type-ahead index over {@link #mDisplayedValues}.
+     */
+    private PrefixIndex mPrefixIndex;
+
     /**
      * Lower value of the range of numbers allowed for the NumberPicker
      */
@@ -300,19 +350,57 @@ public class LocalePicker extends LinearLayout {
     private long mLongPressUpdateInterval = DEFAULT_LONG_PRESS_UPDATE_INTERVAL;
 
     /**
-     * Cache for the string representation of selector indices.
+     * The selector indices whose value are show by the selector, with their
+     * string representation.
      */
-    private final SparseArray<String> mSelectorIndexToStringCache = new SparseArray<String>();
+    private final SelectorRing mSelectorRing;
 
     /**
-     * The selector indices whose value are show by the selector.
+     * The {@link android.graphics.Paint} for drawing the selector.
      */
-    private final int[] mSelectorIndices;
+    private final Paint mSelectorWheelPaint;
 
     /**
-     * The {@link android.graphics.Paint} for drawing the selector.
+     * {@link #mSelectorWheelPaint} aligned to the left, for the label layouts
+     * which do their own centering.
      */
-    private final Paint mSelectorWheelPaint;
+    private final TextPaint mLabelLayoutPaint;
+
+    /**
+     * Labels measured and laid out once, so the wheel doesn't measure and center
+     * native-script names every frame. Holds the visible items plus
+     * {@link #LABEL_CACHE_MARGIN} on each side.
+     */
+    private final LruCache<LabelLayoutKey, Layout> mLabelLayoutCache;
+
+    /**
+     * Layouts of the labels around where the current fling will land, built
+     * ahead of time. Kept apart from {@link #mLabelLayoutCache} so the labels the
+     * fling passes on its way don't evict them.
+     */
+    private final LruCache<LabelLayoutKey, Layout> mLandingLabelLayoutCache;
+
+    /**
+     * Lays out the labels around the landing position while the thread is idle.
+     */
+    private final PrefetchLandingLabelsCommand mPrefetchLandingLabelsCommand =
+            new PrefetchLandingLabelsCommand();
+
+    /**
+     * Time spent in {@link #onDraw(Canvas)} during the current fling, for debugging.
+     */
+    private long mFlingDrawNanos;
+    private int mFlingDrawCount;
+
+    /**
+     * Label layouts built while drawing the current fling, for debugging.
+     */
+    private int mFlingLayoutMissCount;
+
+    /**
+     * Times the wheel was redrawn into its idle layer, for debugging.
+     */
+    private int mIdleDrawCount;
 
     /**
      * The {@link android.graphics.drawable.Drawable} for pressed virtual (increment/decrement) buttons.
@@ -430,6 +518,12 @@ public class LocalePicker extends LinearLayout {
      */
     private int mScrollState = OnScrollListener.SCROLL_STATE_IDLE;
 
+    /**
+     * Flag whether to report {@link OnScrollListener#SCROLL_STATE_IDLE} once the
+     * wheel has snapped to the closest value, so listeners see the final value.
+     */
+    private boolean mIdleAfterAdjustment;
+
     /**
      * Flag whether to ignore move events - we ignore such when we show in IME
      * to prevent the content from scrolling.
@@ -572,7 +666,7 @@ public class LocalePicker extends LinearLayout {
         super(context, attrs, defStyle);
         sSelectorWheelItemCount = context.getResources().getInteger(R.integer.local_picker_items);
         sSelectorMiddleItemIndex = context.getResources().getInteger(R.integer.local_picker_items)/2;
-        mSelectorIndices= new int[sSelectorWheelItemCount];
+        mSelectorRing = new SelectorRing(sSelectorWheelItemCount);
         // process style attributes
         TypedArray attributesArray = context.obtainStyledAttributes(
                 attrs, R.styleable.LocalePicker, defStyle, 0);
@@ -684,6 +778,8 @@ public class LocalePicker extends LinearLayout {
         mInputText = (EditText) findViewById(R.id.localepicker_input);
         mInputText.setOnFocusChangeListener(new OnFocusChangeListener() {
             public void onFocusChange(View v, boolean hasFocus) {
+                // The cursor blinks while editing, which would redraw the layer
+                updateLayerType();
                 if (hasFocus) {
                     mInputText.selectAll();
                 } else {
@@ -717,6 +813,12 @@ public class LocalePicker extends LinearLayout {
         int color = colors.getColorForState(ENABLED_STATE_SET, Color.WHITE);
         paint.setColor(color);
         mSelectorWheelPaint = paint;
+        mLabelLayoutPaint = new TextPaint(paint);
+        mLabelLayoutPaint.setTextAlign(Align.LEFT);
+        mLabelLayoutCache = new LruCache<LabelLayoutKey, Layout>(
+                sSelectorWheelItemCount + 2 * LABEL_CACHE_MARGIN);
+        mLandingLabelLayoutCache = new LruCache<LabelLayoutKey, Layout>(
+                sSelectorWheelItemCount + 2);
 
         // create the fling and adjust scrollers
         mFlingScroller = new Scroller(getContext(), null, true);
@@ -765,6 +867,10 @@ public class LocalePicker extends LinearLayout {
             super.onMeasure(widthMeasureSpec, heightMeasureSpec);
             return;
         }
+        if (mMaxWidthDirty) {
+            mMaxWidthDirty = false;
+            computeMaxWidth();
+        }
         // Try greedily to fit the max width and height.
         final int newWidthMeasureSpec = makeMeasureSpec(widthMeasureSpec, mMaxWidth);
         final int newHeightMeasureSpec = makeMeasureSpec(heightMeasureSpec, mMaxHeight);
@@ -819,6 +925,7 @@ public class LocalePicker extends LinearLayout {
                 mLastDownEventTime = event.getEventTime();
                 mIngonreMoveEvents = false;
                 mShowSoftInputOnTap = false;
+                mIdleAfterAdjustment = false;
                 // Handle pressed state before any state change.
                 if (mLastDownEventY < mTopSelectionDividerTop) {
                     if (mScrollState == OnScrollListener.SCROLL_STATE_IDLE) {
@@ -918,10 +1025,12 @@ public class LocalePicker extends LinearLayout {
                                         PressedStateHelper.BUTTON_DECREMENT);
                             }
                         }
-                    } else {
-                        ensureScrollWheelAdjusted();
+                    } else if (ensureScrollWheelAdjusted()) {
+                        mIdleAfterAdjustment = true;
+                    }
+                    if (!mIdleAfterAdjustment) {
+                        onScrollStateChange(OnScrollListener.SCROLL_STATE_IDLE);
                     }
-                    onScrollStateChange(OnScrollListener.SCROLL_STATE_IDLE);
                 }
                 mVelocityTracker.recycle();
                 mVelocityTracker = null;
@@ -1077,31 +1186,33 @@ public class LocalePicker extends LinearLayout {
 
     @Override
     public void scrollBy(int x, int y) {
-        int[] selectorIndices = mSelectorIndices;
+        final SelectorRing selectorRing = mSelectorRing;
         if (!mWrapSelectorWheel && y > 0
-                && selectorIndices[sSelectorMiddleItemIndex] <= mMinValue) {
+                && selectorRing.getIndex(sSelectorMiddleItemIndex) <= mMinValue) {
             mCurrentScrollOffset = mInitialScrollOffset;
             return;
         }
         if (!mWrapSelectorWheel && y < 0
-                && selectorIndices[sSelectorMiddleItemIndex] >= mMaxValue) {
+                && selectorRing.getIndex(sSelectorMiddleItemIndex) >= mMaxValue) {
             mCurrentScrollOffset = mInitialScrollOffset;
             return;
         }
         mCurrentScrollOffset += y;
         while (mCurrentScrollOffset - mInitialScrollOffset > mSelectorTextGapHeight) {
             mCurrentScrollOffset -= mSelectorElementHeight;
-            decrementSelectorIndices(selectorIndices);
-            setValueInternal(selectorIndices[sSelectorMiddleItemIndex], true);
-            if (!mWrapSelectorWheel && selectorIndices[sSelectorMiddleItemIndex] <= mMinValue) {
+            decrementSelectorIndices();
+            setValueInternal(selectorRing.getIndex(sSelectorMiddleItemIndex), true);
+            if (!mWrapSelectorWheel
+                    && selectorRing.getIndex(sSelectorMiddleItemIndex) <= mMinValue) {
                 mCurrentScrollOffset = mInitialScrollOffset;
             }
         }
         while (mCurrentScrollOffset - mInitialScrollOffset < -mSelectorTextGapHeight) {
             mCurrentScrollOffset += mSelectorElementHeight;
-            incrementSelectorIndices(selectorIndices);
-            setValueInternal(selectorIndices[sSelectorMiddleItemIndex], true);
-            if (!mWrapSelectorWheel && selectorIndices[sSelectorMiddleItemIndex] >= mMaxValue) {
+            incrementSelectorIndices();
+            setValueInternal(selectorRing.getIndex(sSelectorMiddleItemIndex), true);
+            if (!mWrapSelectorWheel
+                    && selectorRing.getIndex(sSelectorMiddleItemIndex) >= mMaxValue) {
                 mCurrentScrollOffset = mInitialScrollOffset;
             }
         }
@@ -1210,12 +1321,18 @@ public class LocalePicker extends LinearLayout {
     }
 
     /**
-     * Computes the max width if no such specified as an attribute.
+     * Computes the max width if no such specified as an attribute, at the next measure.
      */
     private void tryComputeMaxWidth() {
-        if (!mComputeMaxWidth) {
+        if (!mComputeMaxWidth || mMaxWidthDirty) {
             return;
         }
+        // Setting the values and then the range both land here, measure once for both
+        mMaxWidthDirty = true;
+        requestLayout();
+    }
+
+    private void computeMaxWidth() {
         int maxTextWidth = 0;
         if (mDisplayedValues == null) {
             float maxDigitWidth = 0;
@@ -1233,14 +1350,27 @@ public class LocalePicker extends LinearLayout {
             }
             maxTextWidth = (int) (numberOfDigits * maxDigitWidth);
         } else {
-            final int valueCount = mDisplayedValues.length;
-            for (int i = 0; i < valueCount; i++) {
-                final float textWidth = mSelectorWheelPaint.measureText(mDisplayedValues[i]);
-                if (textWidth > maxTextWidth) {
-                    maxTextWidth = (int) textWidth;
-                }
+            if (mMeasureMaxWidthTask != null) {
+                mMeasureMaxWidthTask.cancel(false);
+                mMeasureMaxWidthTask = null;
+            }
+            final MaxTextWidthKey key = new MaxTextWidthKey(mDisplayedValues, mTextSize,
+                    mSelectorWheelPaint.getTypeface());
+            final Integer cached = sMaxTextWidthCache.get(key);
+            if (cached != null) {
+                maxTextWidth = cached;
+            } else {
+                // Lay out with an estimate, the exact width follows from the background
+                maxTextWidth = estimateMaxTextWidth(mDisplayedValues);
+                mMeasureMaxWidthTask = new MeasureMaxWidthTask(key, mDisplayedValues,
+                        new Paint(mSelectorWheelPaint));
+                mMeasureMaxWidthTask.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
             }
         }
+        setMaxTextWidth(maxTextWidth);
+    }
+
+    private void setMaxTextWidth(int maxTextWidth) {
         maxTextWidth += mInputText.getPaddingLeft() + mInputText.getPaddingRight();
         if (mMaxWidth != maxTextWidth) {
             if (maxTextWidth > mMinWidth) {
@@ -1252,6 +1382,130 @@ public class LocalePicker extends LinearLayout {
         }
     }
 
+    /**
+     * Measures the longest value and an even sample of the others.
+     */
+    private int estimateMaxTextWidth(String[] values) {
+        final int valueCount = values.length;
+        int longest = 0;
+        for (int i = 1; i < valueCount; i++) {
+            if (values[i].length() > values[longest].length()) {
+                longest = i;
+            }
+        }
+        float maxTextWidth = valueCount > 0 ? mSelectorWheelPaint.measureText(values[longest]) : 0;
+        final int step = Math.max(1, valueCount / MAX_WIDTH_SAMPLE_SIZE);
+        for (int i = 0; i < valueCount; i += step) {
+            maxTextWidth = Math.max(maxTextWidth, mSelectorWheelPaint.measureText(values[i]));
+        }
+        return (int) maxTextWidth;
+    }
+
+    /**
+     * Compares the labels themselves, so different label sets never share a width.
+     */
+    private static class MaxTextWidthKey {
+        private final List<String> mValues;
+        private final int mTextSize;
+        private final Typeface mTypeface;
+
+        public MaxTextWidthKey(String[] values, int textSize, Typeface typeface) {
+            // Copied, the caller's array may be reused for other labels
+            mValues = new ArrayList<String>(Arrays.asList(values));
+            mTextSize = textSize;
+            mTypeface = typeface;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof MaxTextWidthKey)) {
+                return false;
+            }
+            final MaxTextWidthKey other = (MaxTextWidthKey) o;
+            return mTextSize == other.mTextSize
+                    && (mTypeface == null ? other.mTypeface == null
+                            : mTypeface.equals(other.mTypeface))
+                    && mValues.equals(other.mValues);
+        }
+
+        @Override
+        public int hashCode() {
+            return (mValues.hashCode() * 31 + mTextSize) * 31
+                    + (mTypeface != null ? mTypeface.hashCode() : 0);
+        }
+    }
+
+    /**
+     * A label with the text size and typeface it was laid out with.
+     */
+    private static class LabelLayoutKey {
+        private final String mLabel;
+        private final float mTextSize;
+        private final Typeface mTypeface;
+
+        public LabelLayoutKey(String label, Paint paint) {
+            mLabel = label;
+            mTextSize = paint.getTextSize();
+            mTypeface = paint.getTypeface();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof LabelLayoutKey)) {
+                return false;
+            }
+            final LabelLayoutKey other = (LabelLayoutKey) o;
+            return mTextSize == other.mTextSize
+                    && (mTypeface == null ? other.mTypeface == null
+                            : mTypeface.equals(other.mTypeface))
+                    && mLabel.equals(other.mLabel);
+        }
+
+        @Override
+        public int hashCode() {
+            return (mLabel.hashCode() * 31 + Float.floatToIntBits(mTextSize)) * 31
+                    + (mTypeface != null ? mTypeface.hashCode() : 0);
+        }
+    }
+
+    private class MeasureMaxWidthTask extends AsyncTask<Void, Void, Integer> {
+        private final MaxTextWidthKey mKey;
+        private final String[] mValues;
+        private final Paint mPaint;
+
+        public MeasureMaxWidthTask(MaxTextWidthKey key, String[] values, Paint paint) {
+            mKey = key;
+            mValues = values;
+            mPaint = paint;
+        }
+
+        @Override
+        protected Integer doInBackground(Void... params) {
+            int maxTextWidth = 0;
+            for (String value : mValues) {
+                if (isCancelled()) {
+                    break;
+                }
+                maxTextWidth = Math.max(maxTextWidth, (int) mPaint.measureText(value));
+            }
+            return maxTextWidth;
+        }
+
+        @Override
+        protected void onPostExecute(Integer maxTextWidth) {
+            sMaxTextWidthCache.put(mKey, maxTextWidth);
+            if (mMeasureMaxWidthTask != this) {
+                return;
+            }
+            mMeasureMaxWidthTask = null;
+            final int previousWidth = mMaxWidth;
+            setMaxTextWidth(maxTextWidth);
+            if (mMaxWidth != previousWidth) {
+                requestLayout();
+            }
+        }
+    }
+
     /**
      * Gets whether the selector wheel wraps when reaching the min/max value.
      *
@@ -1282,7 +1536,7 @@ public class LocalePicker extends LinearLayout {
      * @param wrapSelectorWheel Whether to wrap.
      */
     public void setWrapSelectorWheel(boolean wrapSelectorWheel) {
-        final boolean wrappingAllowed = (mMaxValue - mMinValue) >= mSelectorIndices.length;
+        final boolean wrappingAllowed = (mMaxValue - mMinValue) >= mSelectorRing.size();
         if ((!wrapSelectorWheel || wrappingAllowed) && wrapSelectorWheel != mWrapSelectorWheel) {
             mWrapSelectorWheel = wrapSelectorWheel;
         }
@@ -1341,7 +1595,7 @@ public class LocalePicker extends LinearLayout {
         if (mMinValue > mValue) {
             mValue = mMinValue;
         }
-        boolean wrapSelectorWheel = mMaxValue - mMinValue > mSelectorIndices.length;
+        boolean wrapSelectorWheel = mMaxValue - mMinValue > mSelectorRing.size();
         setWrapSelectorWheel(wrapSelectorWheel);
         initializeSelectorWheelIndices();
         updateInputTextView();
@@ -1379,7 +1633,7 @@ public class LocalePicker extends LinearLayout {
         if (mMaxValue < mValue) {
             mValue = mMaxValue;
         }
-        boolean wrapSelectorWheel = mMaxValue - mMinValue > mSelectorIndices.length;
+        boolean wrapSelectorWheel = mMaxValue - mMinValue > mSelectorRing.size();
         setWrapSelectorWheel(wrapSelectorWheel);
         initializeSelectorWheelIndices();
         updateInputTextView();
@@ -1410,6 +1664,9 @@ public class LocalePicker extends LinearLayout {
             return;
         }
         mDisplayedValues = displayedValues;
+        mLabelLayoutCache.evictAll();
+        mLandingLabelLayoutCache.evictAll();
+        mPrefixIndex = (displayedValues != null) ? new PrefixIndex(displayedValues) : null;
         if (mDisplayedValues != null) {
             // Allow text entry rather than strictly numeric entry.
             mInputText.setRawInputType(InputType.TYPE_CLASS_TEXT
@@ -1422,6 +1679,25 @@ public class LocalePicker extends LinearLayout {
         tryComputeMaxWidth();
     }
 
+    /**
+     * Replaces the displayed values together with the range, so the picker can
+     * switch to a list of a different length. The range becomes 0 to the
+     * number of values minus one.
+     *
+     * @param displayedValues The displayed values.
+     * @param value The new current value.
+     */
+    public void setDisplayedValues(String[] displayedValues, int value) {
+        mMinValue = 0;
+        mMaxValue = displayedValues.length - 1;
+        mValue = Math.max(Math.min(value, mMaxValue), mMinValue);
+        setWrapSelectorWheel(mMaxValue - mMinValue > mSelectorRing.size());
+        // Always rebuild, the array may be the same one with a new value
+        mDisplayedValues = null;
+        setDisplayedValues(displayedValues);
+        invalidate();
+    }
+
     @Override
     protected float getTopFadingEdgeStrength() {
         return TOP_AND_BOTTOM_FADING_EDGE_STRENGTH;
@@ -1435,6 +1711,36 @@ public class LocalePicker extends LinearLayout {
     @Override
     protected void onDetachedFromWindow() {
         removeAllCallbacks();
+        mPrefetchLandingLabelsCommand.cancel();
+    }
+
+    @Override
+    protected void onAttachedToWindow() {
+        super.onAttachedToWindow();
+        updateLayerType();
+    }
+
+    /**
+     * Keeps the settled wheel in a hardware layer, so drawing around it, like the
+     * page transition or the parent scrolling, doesn't render the labels, dividers
+     * and fading edges again. The layer is dropped while the wheel moves, as its
+     * content changes every frame then.
+     */
+    private void updateLayerType() {
+        final boolean settled = mHasSelectorWheel
+                && mScrollState == OnScrollListener.SCROLL_STATE_IDLE
+                && mFlingScroller.isFinished() && mAdjustScroller.isFinished()
+                && !mInputText.hasFocus();
+        final int layerType = (settled && isHardwareAccelerated())
+                ? LAYER_TYPE_HARDWARE : LAYER_TYPE_NONE;
+        if (getLayerType() == layerType) {
+            return;
+        }
+        if (SetupWizardApp.DEBUG && layerType == LAYER_TYPE_NONE) {
+            Log.d(TAG, "Idle layer redrawn " + mIdleDrawCount + " times");
+        }
+        mIdleDrawCount = 0;
+        setLayerType(layerType, null);
     }
 
     @Override
@@ -1462,22 +1768,31 @@ public class LocalePicker extends LinearLayout {
             }
         }
 
+        final long drawStart = SetupWizardApp.DEBUG ? SystemClock.elapsedRealtimeNanos() : 0;
+
         // draw the selector wheel
-        int[] selectorIndices = mSelectorIndices;
-        for (int i = 0; i < selectorIndices.length; i++) {
-            int selectorIndex = selectorIndices[i];
-            String scrollSelectorValue = mSelectorIndexToStringCache.get(selectorIndex);
+        final SelectorRing selectorRing = mSelectorRing;
+        for (int i = 0; i < selectorRing.size(); i++) {
+            String scrollSelectorValue = selectorRing.getValue(i);
             // Do not draw the middle item if input is visible since the input
             // is shown only if the wheel is static and it covers the middle
             // item. Otherwise, if the user starts editing the text via the
             // IME he may see a dimmed version of the old value intermixed
             // with the new one.
             if (i != sSelectorMiddleItemIndex || mInputText.getVisibility() != VISIBLE) {
-                canvas.drawText(scrollSelectorValue, x, y, mSelectorWheelPaint);
+                drawLabel(canvas, scrollSelectorValue, x, y);
             }
             y += mSelectorElementHeight;
         }
 
+        if (SetupWizardApp.DEBUG && getLayerType() == LAYER_TYPE_HARDWARE) {
+            mIdleDrawCount++;
+        }
+        if (SetupWizardApp.DEBUG && mScrollState == OnScrollListener.SCROLL_STATE_FLING) {
+            mFlingDrawNanos += SystemClock.elapsedRealtimeNanos() - drawStart;
+            mFlingDrawCount++;
+        }
+
         // draw the selection dividers
         if (mSelectionDivider != null) {
             // draw the top divider
@@ -1494,6 +1809,47 @@ public class LocalePicker extends LinearLayout {
         }
     }
 
+    /**
+     * Draws {@code label} centered at {@code x} on the baseline {@code y}, the
+     * same as drawText with {@link #mSelectorWheelPaint} would.
+     */
+    private void drawLabel(Canvas canvas, String label, float x, float y) {
+        if (TextUtils.isEmpty(label)) {
+            return;
+        }
+        final LabelLayoutKey key = new LabelLayoutKey(label, mLabelLayoutPaint);
+        Layout layout = mLabelLayoutCache.get(key);
+        if (layout == null) {
+            layout = mLandingLabelLayoutCache.get(key);
+            if (layout == null) {
+                if (mScrollState == OnScrollListener.SCROLL_STATE_FLING) {
+                    mFlingLayoutMissCount++;
+                }
+                layout = buildLabelLayout(label);
+            }
+            mLabelLayoutCache.put(key, layout);
+        }
+        canvas.save();
+        canvas.translate(x - layout.getWidth() / 2f, y - layout.getLineBaseline(0));
+        layout.draw(canvas);
+        canvas.restore();
+    }
+
+    /**
+     * @return {@code label} measured and laid out on a single line as wide as it is.
+     */
+    private Layout buildLabelLayout(String label) {
+        final BoringLayout.Metrics metrics = BoringLayout.isBoring(label, mLabelLayoutPaint);
+        if (metrics != null) {
+            return BoringLayout.make(label, mLabelLayoutPaint, metrics.width,
+                    Layout.Alignment.ALIGN_NORMAL, 1f, 0f, metrics, false);
+        }
+        // Right to left and complex scripts need the full layout
+        final int width = (int) Math.ceil(Layout.getDesiredWidth(label, mLabelLayoutPaint));
+        return new StaticLayout(label, mLabelLayoutPaint, width,
+                Layout.Alignment.ALIGN_NORMAL, 1f, 0f, false);
+    }
+
     @Override
     public void onInitializeAccessibilityEvent(AccessibilityEvent event) {
         super.onInitializeAccessibilityEvent(event);
@@ -1564,16 +1920,15 @@ public class LocalePicker extends LinearLayout {
      * these indices.
      */
     private void initializeSelectorWheelIndices() {
-        mSelectorIndexToStringCache.clear();
-        int[] selectorIndices = mSelectorIndices;
+        final SelectorRing selectorRing = mSelectorRing;
+        selectorRing.reset();
         int current = getValue();
-        for (int i = 0; i < mSelectorIndices.length; i++) {
+        for (int i = 0; i < selectorRing.size(); i++) {
             int selectorIndex = current + (i - sSelectorMiddleItemIndex);
             if (mWrapSelectorWheel) {
                 selectorIndex = getWrappedSelectorIndex(selectorIndex);
             }
-            selectorIndices[i] = selectorIndex;
-            ensureCachedScrollSelectorValue(selectorIndices[i]);
+            selectorRing.set(i, selectorIndex, getScrollSelectorValue(selectorIndex));
         }
     }
 
@@ -1600,7 +1955,10 @@ public class LocalePicker extends LinearLayout {
         if (notifyChange) {
             notifyChange(previous, current);
         }
-        initializeSelectorWheelIndices();
+        // Scrolling has already shifted the wheel onto the new value
+        if (mSelectorRing.getIndex(sSelectorMiddleItemIndex) != current) {
+            initializeSelectorWheelIndices();
+        }
         invalidate();
     }
 
@@ -1623,6 +1981,7 @@ public class LocalePicker extends LinearLayout {
             } else {
                 mFlingScroller.startScroll(0, 0, 0, mSelectorElementHeight, SNAP_SCROLL_DURATION);
             }
+            updateLayerType();
             invalidate();
         } else {
             if (increment) {
@@ -1635,10 +1994,9 @@ public class LocalePicker extends LinearLayout {
 
     private void initializeSelectorWheel() {
         initializeSelectorWheelIndices();
-        int[] selectorIndices = mSelectorIndices;
-        int totalTextHeight = selectorIndices.length * mTextSize;
+        int totalTextHeight = mSelectorRing.size() * mTextSize;
         float totalTextGapHeight = (mBottom - mTop) - totalTextHeight;
-        float textGapCount = selectorIndices.length;
+        float textGapCount = mSelectorRing.size();
         mSelectorTextGapHeight = (int) (totalTextGapHeight / textGapCount + 0.5f);
         mSelectorElementHeight = mTextSize + mSelectorTextGapHeight;
         // Ensure that the middle item is positioned the same as the text in
@@ -1660,15 +2018,22 @@ public class LocalePicker extends LinearLayout {
      */
     private void onScrollerFinished(Scroller scroller) {
         if (scroller == mFlingScroller) {
-            if (!ensureScrollWheelAdjusted()) {
+            if (ensureScrollWheelAdjusted()) {
+                mIdleAfterAdjustment = true;
+            } else {
                 updateInputTextView();
+                onScrollStateChange(OnScrollListener.SCROLL_STATE_IDLE);
             }
-            onScrollStateChange(OnScrollListener.SCROLL_STATE_IDLE);
         } else {
-            if (mScrollState != OnScrollListener.SCROLL_STATE_TOUCH_SCROLL) {
+            if (mIdleAfterAdjustment) {
+                mIdleAfterAdjustment = false;
+                updateInputTextView();
+                onScrollStateChange(OnScrollListener.SCROLL_STATE_IDLE);
+            } else if (mScrollState != OnScrollListener.SCROLL_STATE_TOUCH_SCROLL) {
                 updateInputTextView();
             }
         }
+        updateLayerType();
     }
 
     /**
@@ -1676,9 +2041,22 @@ public class LocalePicker extends LinearLayout {
      */
     private void onScrollStateChange(int scrollState) {
         if (mScrollState == scrollState) {
+            updateLayerType();
             return;
         }
+        if (SetupWizardApp.DEBUG && scrollState == OnScrollListener.SCROLL_STATE_IDLE
+                && mFlingDrawCount > 0) {
+            Log.d(TAG, "Fling drew " + mFlingDrawCount + " frames, "
+                    + (mFlingDrawNanos / mFlingDrawCount / 1000) + "us per frame, "
+                    + mFlingLayoutMissCount + " label layouts built while drawing");
+        }
+        if (scrollState == OnScrollListener.SCROLL_STATE_FLING) {
+            mFlingDrawNanos = 0;
+            mFlingDrawCount = 0;
+            mFlingLayoutMissCount = 0;
+        }
         mScrollState = scrollState;
+        updateLayerType();
         if (mOnScrollListener != null) {
             mOnScrollListener.onScrollStateChange(this, scrollState);
         }
@@ -1695,10 +2073,44 @@ public class LocalePicker extends LinearLayout {
         } else {
             mFlingScroller.fling(0, Integer.MAX_VALUE, 0, velocityY, 0, 0, 0, Integer.MAX_VALUE);
         }
+        prefetchFlingLanding();
 
         invalidate();
     }
 
+    /**
+     * Works out where the fling just started will settle, from the scroller's
+     * final position, and lays out the labels shown there ahead of time.
+     */
+    private void prefetchFlingLanding() {
+        if (mSelectorElementHeight <= 0 || mMaxValue <= mMinValue) {
+            return;
+        }
+        // Scrolling down by an item shows the previous value in the middle
+        final int distance = mFlingScroller.getFinalY() - mFlingScroller.getStartY()
+                + mCurrentScrollOffset - mInitialScrollOffset;
+        final int items = Math.round((float) distance / mSelectorElementHeight);
+        int landing = mSelectorRing.getIndex(sSelectorMiddleItemIndex) - items;
+        if (mWrapSelectorWheel) {
+            landing = wrapLandingIndex(landing);
+        } else {
+            landing = Math.max(mMinValue, Math.min(landing, mMaxValue));
+        }
+        mPrefetchLandingLabelsCommand.start(landing);
+    }
+
+    /**
+     * @return {@code index} wrapped into the range, however many laps away it is.
+     */
+    private int wrapLandingIndex(int index) {
+        final int range = mMaxValue - mMinValue + 1;
+        int offset = (index - mMinValue) % range;
+        if (offset < 0) {
+            offset += range;
+        }
+        return mMinValue + offset;
+    }
+
     /**
      * @return The wrapped index <code>selectorIndex</code> value.
      */
@@ -1712,58 +2124,103 @@ public class LocalePicker extends LinearLayout {
     }
 
     /**
-     * Increments the <code>selectorIndices</code> whose string representations
+     * Increments the selector indices whose string representations
      * will be displayed in the selector.
      */
-    private void incrementSelectorIndices(int[] selectorIndices) {
-        for (int i = 0; i < selectorIndices.length - 1; i++) {
-            selectorIndices[i] = selectorIndices[i + 1];
-        }
-        int nextScrollSelectorIndex = selectorIndices[selectorIndices.length - 2] + 1;
+    private void incrementSelectorIndices() {
+        int nextScrollSelectorIndex = mSelectorRing.getIndex(mSelectorRing.size() - 1) + 1;
         if (mWrapSelectorWheel && nextScrollSelectorIndex > mMaxValue) {
             nextScrollSelectorIndex = mMinValue;
         }
-        selectorIndices[selectorIndices.length - 1] = nextScrollSelectorIndex;
-        ensureCachedScrollSelectorValue(nextScrollSelectorIndex);
+        mSelectorRing.shiftUp(nextScrollSelectorIndex,
+                getScrollSelectorValue(nextScrollSelectorIndex));
     }
 
     /**
-     * Decrements the <code>selectorIndices</code> whose string representations
+     * Decrements the selector indices whose string representations
      * will be displayed in the selector.
      */
-    private void decrementSelectorIndices(int[] selectorIndices) {
-        for (int i = selectorIndices.length - 1; i > 0; i--) {
-            selectorIndices[i] = selectorIndices[i - 1];
-        }
-        int nextScrollSelectorIndex = selectorIndices[1] - 1;
+    private void decrementSelectorIndices() {
+        int nextScrollSelectorIndex = mSelectorRing.getIndex(0) - 1;
         if (mWrapSelectorWheel && nextScrollSelectorIndex < mMinValue) {
             nextScrollSelectorIndex = mMaxValue;
         }
-        selectorIndices[0] = nextScrollSelectorIndex;
-        ensureCachedScrollSelectorValue(nextScrollSelectorIndex);
+        mSelectorRing.shiftDown(nextScrollSelectorIndex,
+                getScrollSelectorValue(nextScrollSelectorIndex));
     }
 
     /**
-     * Ensures we have a cached string representation of the given <code>
-     * selectorIndex</code> to avoid multiple instantiations of the same string.
+     * Returns the string representation of the given <code>selectorIndex</code>,
+     * the selector ring keeps it while the index is on the wheel.
      */
-    private void ensureCachedScrollSelectorValue(int selectorIndex) {
-        SparseArray<String> cache = mSelectorIndexToStringCache;
-        String scrollSelectorValue = cache.get(selectorIndex);
-        if (scrollSelectorValue != null) {
-            return;
-        }
+    private String getScrollSelectorValue(int selectorIndex) {
         if (selectorIndex < mMinValue || selectorIndex > mMaxValue) {
-            scrollSelectorValue = "";
-        } else {
-            if (mDisplayedValues != null) {
-                int displayedValueIndex = selectorIndex - mMinValue;
-                scrollSelectorValue = mDisplayedValues[displayedValueIndex];
-            } else {
-                scrollSelectorValue = formatNumber(selectorIndex);
-            }
+            return "";
+        }
+        if (mDisplayedValues != null) {
+            int displayedValueIndex = selectorIndex - mMinValue;
+            return mDisplayedValues[displayedValueIndex];
+        }
+        return formatNumber(selectorIndex);
+    }
+
+    /**
+     * The selector indices on the wheel and their strings, kept in a ring of
+     * fixed size so scrolling by one item moves the head instead of every slot.
+     */
+    private static class SelectorRing {
+        private final int[] mIndices;
+        private final String[] mValues;
+        private int mHead;
+
+        public SelectorRing(int size) {
+            mIndices = new int[size];
+            mValues = new String[size];
+        }
+
+        public int size() {
+            return mIndices.length;
+        }
+
+        public int getIndex(int position) {
+            return mIndices[slot(position)];
+        }
+
+        public String getValue(int position) {
+            return mValues[slot(position)];
+        }
+
+        public void set(int position, int index, String value) {
+            final int slot = slot(position);
+            mIndices[slot] = index;
+            mValues[slot] = value;
+        }
+
+        public void reset() {
+            mHead = 0;
+        }
+
+        /**
+         * Drops the first item and appends the given one after the last.
+         */
+        public void shiftUp(int index, String value) {
+            mIndices[mHead] = index;
+            mValues[mHead] = value;
+            mHead = (mHead + 1) % mIndices.length;
+        }
+
+        /**
+         * Drops the last item and inserts the given one before the first.
+         */
+        public void shiftDown(int index, String value) {
+            mHead = (mHead - 1 + mIndices.length) % mIndices.length;
+            mIndices[mHead] = index;
+            mValues[mHead] = value;
+        }
+
+        private int slot(int position) {
+            return (mHead + position) % mIndices.length;
         }
-        cache.put(selectorIndex, scrollSelectorValue);
     }
 
     private String formatNumber(int value) {
@@ -1889,12 +2346,10 @@ public class LocalePicker extends LinearLayout {
                 // Ignore as if it's not a number we don't care
             }
         } else {
-            for (int i = 0; i < mDisplayedValues.length; i++) {
-                // Don't force the user to type in jan when ja will do
-                value = value.toLowerCase();
-                if (mDisplayedValues[i].toLowerCase().startsWith(value)) {
-                    return mMinValue + i;
-                }
+            // Don't force the user to type in jan when ja will do
+            final int position = mPrefixIndex.find(value);
+            if (position != -1) {
+                return mMinValue + position;
             }
 
             /*
@@ -1940,6 +2395,77 @@ public class LocalePicker extends LinearLayout {
             , '\u06f9'
     };
 
+    /**
+     * Sorted, case and accent folded keys of the displayed values, so a prefix
+     * lookup is a binary search instead of lower casing every value per key press.
+     * The folded values are also kept in display order for accessibility searches.
+     */
+    private static class PrefixIndex {
+        private static final Pattern COMBINING_MARKS = Pattern.compile("\\p{Mn}+");
+
+        private final String[] mFoldedValues;
+        private final String[] mKeys;
+        private final int[] mPositions;
+
+        public PrefixIndex(String[] values) {
+            final int count = values.length;
+            final String[] keys = new String[count];
+            final Integer[] order = new Integer[count];
+            for (int i = 0; i < count; i++) {
+                keys[i] = fold(values[i]);
+                order[i] = i;
+            }
+            Arrays.sort(order, new Comparator<Integer>() {
+                @Override
+                public int compare(Integer lhs, Integer rhs) {
+                    final int result = keys[lhs].compareTo(keys[rhs]);
+                    return result != 0 ? result : lhs.compareTo(rhs);
+                }
+            });
+            mFoldedValues = keys;
+            mKeys = new String[count];
+            mPositions = new int[count];
+            for (int i = 0; i < count; i++) {
+                mKeys[i] = keys[order[i]];
+                mPositions[i] = order[i];
+            }
+        }
+
+        public String getFoldedValue(int position) {
+            return mFoldedValues[position];
+        }
+
+        /**
+         * @return The first position whose value starts with {@code prefix}, or -1.
+         */
+        public int find(String prefix) {
+            final String key = fold(prefix);
+            int low = 0;
+            int high = mKeys.length;
+            while (low < high) {
+                final int mid = (low + high) >>> 1;
+                if (mKeys[mid].compareTo(key) < 0) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            // Matches are contiguous, keep the one shown first
+            int position = -1;
+            for (int i = low; i < mKeys.length && mKeys[i].startsWith(key); i++) {
+                if (position == -1 || mPositions[i] < position) {
+                    position = mPositions[i];
+                }
+            }
+            return position;
+        }
+
+        public static String fold(String value) {
+            return COMBINING_MARKS.matcher(Normalizer.normalize(value, Normalizer.Form.NFD))
+                    .replaceAll("").toLowerCase(Locale.ROOT);
+        }
+    }
+
     /**
      * Filter for accepting only valid indices or prefixes of the string
      * representation of valid indices.
@@ -1993,15 +2519,17 @@ public class LocalePicker extends LinearLayout {
                 }
                 String result = String.valueOf(dest.subSequence(0, dstart)) + filtered
                         + dest.subSequence(dend, dest.length());
-                String str = String.valueOf(result).toLowerCase();
-                for (String val : mDisplayedValues) {
-                    String valLowerCase = val.toLowerCase();
-                    if (valLowerCase.startsWith(str)) {
-                        postSetSelectionCommand(result.length(), val.length());
-                        return val.subSequence(dstart, val.length());
-                    }
+                final int position = mPrefixIndex.find(result);
+                if (position == -1) {
+                    // No value starts like this
+                    return "";
                 }
-                return "";
+                final String val = mDisplayedValues[position];
+                if (dstart > val.length()) {
+                    return "";
+                }
+                postSetSelectionCommand(Math.min(result.length(), val.length()), val.length());
+                return val.subSequence(dstart, val.length());
             }
         }
     }
@@ -2021,6 +2549,7 @@ public class LocalePicker extends LinearLayout {
                 deltaY += (deltaY > 0) ? -mSelectorElementHeight : mSelectorElementHeight;
             }
             mAdjustScroller.startScroll(0, 0, 0, deltaY, SELECTOR_ADJUSTMENT_DURATION_MILLIS);
+            updateLayerType();
             invalidate();
             return true;
         }
@@ -2117,6 +2646,66 @@ public class LocalePicker extends LinearLayout {
         }
     }
 
+    /**
+     * Builds the layouts of the labels around a fling's landing position into
+     * {@link #mLandingLabelLayoutCache}, one per idle pass of the message queue
+     * so the frames of the fling itself aren't delayed.
+     */
+    class PrefetchLandingLabelsCommand implements MessageQueue.IdleHandler {
+        private int mLanding;
+
+        private int mNext;
+
+        private int mEnd;
+
+        private boolean mQueued;
+
+        public void start(int landing) {
+            // One item beyond the wheel on each side covers the snap at the end
+            final int reach = sSelectorMiddleItemIndex + 1;
+            mLanding = landing;
+            mNext = landing - reach;
+            mEnd = landing + reach;
+            if (!mQueued) {
+                mQueued = true;
+                Looper.myQueue().addIdleHandler(this);
+            }
+        }
+
+        public void cancel() {
+            if (mQueued) {
+                mQueued = false;
+                Looper.myQueue().removeIdleHandler(this);
+            }
+        }
+
+        @Override
+        public boolean queueIdle() {
+            while (mNext <= mEnd) {
+                int index = mNext++;
+                if (mWrapSelectorWheel) {
+                    index = wrapLandingIndex(index);
+                }
+                final String label = getScrollSelectorValue(index);
+                if (TextUtils.isEmpty(label)) {
+                    continue;
+                }
+                final LabelLayoutKey key = new LabelLayoutKey(label, mLabelLayoutPaint);
+                if (mLabelLayoutCache.get(key) != null
+                        || mLandingLabelLayoutCache.get(key) != null) {
+                    continue;
+                }
+                mLandingLabelLayoutCache.put(key, buildLabelLayout(label));
+                return true;
+            }
+            if (SetupWizardApp.DEBUG) {
+                Log.d(TAG, "Prefetched labels around " + mLanding);
+            }
+            mQueued = false;
+            return false;
+        }
+    }
+
     /**
      * Command for changing the current value from a long press by one.
      */
@@ -2182,6 +2771,11 @@ public class LocalePicker extends LinearLayout {
 
         private int mAccessibilityFocusedView = UNDEFINED;
 
+        // Screen readers repeat the same search, so keep the last one folded
+        private String mLastSearched;
+
+        private String mLastSearchedFolded;
+
         @Override
         public AccessibilityNodeInfo createAccessibilityNodeInfo(int virtualViewId) {
             switch (virtualViewId) {
@@ -2213,27 +2807,42 @@ public class LocalePicker extends LinearLayout {
             if (TextUtils.isEmpty(searched)) {
                 return Collections.emptyList();
             }
-            String searchedLowerCase = searched.toLowerCase();
-            List<AccessibilityNodeInfo> result = new ArrayList<AccessibilityNodeInfo>();
             switch (virtualViewId) {
-                case View.NO_ID: {
-                    findAccessibilityNodeInfosByTextInChild(searchedLowerCase,
-                            VIRTUAL_VIEW_ID_DECREMENT, result);
-                    findAccessibilityNodeInfosByTextInChild(searchedLowerCase,
-                            VIRTUAL_VIEW_ID_INPUT, result);
-                    findAccessibilityNodeInfosByTextInChild(searchedLowerCase,
-                            VIRTUAL_VIEW_ID_INCREMENT, result);
-                    return result;
-                }
+                case View.NO_ID:
                 case VIRTUAL_VIEW_ID_DECREMENT:
                 case VIRTUAL_VIEW_ID_INCREMENT:
-                case VIRTUAL_VIEW_ID_INPUT: {
-                    findAccessibilityNodeInfosByTextInChild(searchedLowerCase, virtualViewId,
-                            result);
-                    return result;
-                }
+                case VIRTUAL_VIEW_ID_INPUT:
+                    break;
+                default:
+                    return super.findAccessibilityNodeInfosByText(searched, virtualViewId);
+            }
+            final String searchedFolded = foldSearched(searched);
+            // The caller takes ownership of the list and the nodes, so only
+            // allocate them for children that actually match
+            List<AccessibilityNodeInfo> result = null;
+            if (virtualViewId == View.NO_ID) {
+                result = findAccessibilityNodeInfosByTextInChild(searchedFolded,
+                        VIRTUAL_VIEW_ID_DECREMENT, result);
+                result = findAccessibilityNodeInfosByTextInChild(searchedFolded,
+                        VIRTUAL_VIEW_ID_INPUT, result);
+                result = findAccessibilityNodeInfosByTextInChild(searchedFolded,
+                        VIRTUAL_VIEW_ID_INCREMENT, result);
+            } else {
+                result = findAccessibilityNodeInfosByTextInChild(searchedFolded, virtualViewId,
+                        result);
+            }
+            if (result == null) {
+                return Collections.emptyList();
             }
-            return super.findAccessibilityNodeInfosByText(searched, virtualViewId);
+            return result;
+        }
+
+        private String foldSearched(String searched) {
+            if (!searched.equals(mLastSearched)) {
+                mLastSearched = searched;
+                mLastSearchedFolded = PrefixIndex.fold(searched);
+            }
+            return mLastSearchedFolded;
         }
 
         @Override
@@ -2424,38 +3033,50 @@ public class LocalePicker extends LinearLayout {
             }
         }
 
-        private void findAccessibilityNodeInfosByTextInChild(String searchedLowerCase,
-                int virtualViewId, List<AccessibilityNodeInfo> outResult) {
+        private List<AccessibilityNodeInfo> findAccessibilityNodeInfosByTextInChild(
+                String searchedFolded, int virtualViewId, List<AccessibilityNodeInfo> outResult) {
+            boolean matches = false;
             switch (virtualViewId) {
                 case VIRTUAL_VIEW_ID_DECREMENT: {
-                    String text = getVirtualDecrementButtonText();
-                    if (!TextUtils.isEmpty(text)
-                            && text.toString().toLowerCase().contains(searchedLowerCase)) {
-                        outResult.add(createAccessibilityNodeInfo(VIRTUAL_VIEW_ID_DECREMENT));
-                    }
-                } return;
+                    final int value = getVirtualDecrementButtonValue();
+                    matches = value != UNDEFINED && valueContains(value, searchedFolded);
+                } break;
                 case VIRTUAL_VIEW_ID_INPUT: {
-                    CharSequence text = mInputText.getText();
-                    if (!TextUtils.isEmpty(text) &&
-                            text.toString().toLowerCase().contains(searchedLowerCase)) {
-                        outResult.add(createAccessibilityNodeInfo(VIRTUAL_VIEW_ID_INPUT));
-                        return;
+                    if (!mInputText.isFocused()) {
+                        // Not being edited, so it shows the current value
+                        matches = valueContains(mValue, searchedFolded);
+                    } else {
+                        matches = textContains(mInputText.getText(), searchedFolded);
                     }
-                    CharSequence contentDesc = mInputText.getText();
-                    if (!TextUtils.isEmpty(contentDesc) &&
-                            contentDesc.toString().toLowerCase().contains(searchedLowerCase)) {
-                        outResult.add(createAccessibilityNodeInfo(VIRTUAL_VIEW_ID_INPUT));
-                        return;
+                    if (!matches) {
+                        matches = textContains(mInputText.getContentDescription(),
+                                searchedFolded);
                     }
                 } break;
                 case VIRTUAL_VIEW_ID_INCREMENT: {
-                    String text = getVirtualIncrementButtonText();
-                    if (!TextUtils.isEmpty(text)
-                            && text.toString().toLowerCase().contains(searchedLowerCase)) {
-                        outResult.add(createAccessibilityNodeInfo(VIRTUAL_VIEW_ID_INCREMENT));
-                    }
-                } return;
+                    final int value = getVirtualIncrementButtonValue();
+                    matches = value != UNDEFINED && valueContains(value, searchedFolded);
+                } break;
             }
+            if (matches) {
+                if (outResult == null) {
+                    outResult = new ArrayList<AccessibilityNodeInfo>(3);
+                }
+                outResult.add(createAccessibilityNodeInfo(virtualViewId));
+            }
+            return outResult;
+        }
+
+        private boolean valueContains(int value, String searchedFolded) {
+            if (mPrefixIndex != null) {
+                return mPrefixIndex.getFoldedValue(value - mMinValue).contains(searchedFolded);
+            }
+            return formatNumber(value).contains(searchedFolded);
+        }
+
+        private boolean textContains(CharSequence text, String searchedFolded) {
+            return !TextUtils.isEmpty(text)
+                    && PrefixIndex.fold(text.toString()).contains(searchedFolded);
         }
 
         private AccessibilityNodeInfo createAccessibiltyNodeInfoForInputText(
@@ -2577,27 +3198,35 @@ public class LocalePicker extends LinearLayout {
         }
 
         private String getVirtualDecrementButtonText() {
+            return getVirtualButtonText(getVirtualDecrementButtonValue());
+        }
+
+        private String getVirtualIncrementButtonText() {
+            return getVirtualButtonText(getVirtualIncrementButtonValue());
+        }
+
+        private String getVirtualButtonText(int value) {
+            if (value == UNDEFINED) {
+                return null;
+            }
+            return (mDisplayedValues == null) ? formatNumber(value)
+                    : mDisplayedValues[value - mMinValue];
+        }
+
+        private int getVirtualDecrementButtonValue() {
             int value = mValue - 1;
             if (mWrapSelectorWheel) {
                 value = getWrappedSelectorIndex(value);
             }
-            if (value >= mMinValue) {
-                return (mDisplayedValues == null) ? formatNumber(value)
-                        : mDisplayedValues[value - mMinValue];
-            }
-            return null;
+            return value >= mMinValue ? value : UNDEFINED;
         }
 
-        private String getVirtualIncrementButtonText() {
+        private int getVirtualIncrementButtonValue() {
             int value = mValue + 1;
             if (mWrapSelectorWheel) {
                 value = getWrappedSelectorIndex(value);
             }
-            if (value <= mMaxValue) {
-                return (mDisplayedValues == null) ? formatNumber(value)
-                        : mDisplayedValues[value - mMinValue];
-            }
-            return null;
+            return value <= mMaxValue ? value : UNDEFINED;
         }
     }
 
@@ -18,10 +18,12 @@ package com.tesla.setupwizard.ui;
 
 import android.animation.Animator;
 import android.app.Activity;
+import android.app.Fragment;
 import android.app.WallpaperManager;
 import android.content.Intent;
 import android.content.SharedPreferences;
 import android.content.pm.ActivityInfo;
+import android.content.res.Configuration;
 import android.content.res.Resources;
 import android.graphics.Bitmap;
 import android.graphics.Point;
@@ -33,29 +35,36 @@ import android.preference.PreferenceManager;
 import android.provider.Settings;
 import android.text.TextUtils;
 import android.util.Log;
+import android.util.SparseArray;
 import android.view.MotionEvent;
 import android.view.View;
 import android.view.ViewAnimationUtils;
+import android.view.ViewStub;
 import android.view.animation.Animation;
 import android.view.animation.AnimationUtils;
 import android.widget.Button;
 import android.widget.ImageView;
 import android.widget.ProgressBar;
+import android.widget.TextView;
 
 import com.android.setupwizardlib.util.SystemBarHelper;
 import com.tesla.setupwizard.R;
 import com.tesla.setupwizard.SetupWizardApp;
+import com.tesla.setupwizard.setup.ActivityLaunchPage;
 import com.tesla.setupwizard.setup.TeslaSetupWizardData;
 import com.tesla.setupwizard.setup.GmsAccountPage;
 import com.tesla.setupwizard.setup.Page;
 import com.tesla.setupwizard.setup.SetupDataCallbacks;
 import com.tesla.setupwizard.util.EnableAccessibilityController;
 import com.tesla.setupwizard.util.SetupWizardUtils;
+import com.tesla.setupwizard.util.SimLocaleResolver;
+import com.tesla.setupwizard.util.WifiWarmer;
 
 import cyanogenmod.providers.CMSettings;
 import cyanogenmod.themes.ThemeManager;
 
 import java.util.ArrayList;
+import java.util.Locale;
 
 
 public class SetupWizardActivity extends Activity implements SetupDataCallbacks,
@@ -71,17 +80,25 @@ public class SetupWizardActivity extends Activity implements SetupDataCallbacks,
     private Button mPrevButton;
     private ImageView mReveal;
     private ProgressBar mFinishingProgressBar;
+    private View mLaunchPlaceholder;
 
     private EnableAccessibilityController mEnableAccessibilityController;
 
     private TeslaSetupWizardData mSetupData;
 
+    private Locale mLocale;
+
     private final Handler mHandler = new Handler();
 
     private volatile boolean mIsFinishing = false;
 
     private final ArrayList<Runnable> mFinishRunnables = new ArrayList<Runnable>();
 
+    // The page that launched each pending request, its result goes back there
+    private final SparseArray<String> mRequestPageKeys = new SparseArray<String>();
+
+    private Runnable mPendingLaunch;
+
     public void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
         final boolean isOwner = SetupWizardUtils.isOwner();
@@ -90,6 +107,7 @@ public class SetupWizardActivity extends Activity implements SetupDataCallbacks,
         }
         SystemBarHelper.hideSystemBars(getWindow());
         setContentView(R.layout.setup_main);
+        mLocale = getResources().getConfiguration().locale;
         mRootView = findViewById(R.id.root);
         mReveal = (ImageView)mRootView.findViewById(R.id.reveal);
         mButtonBar = findViewById(R.id.button_bar);
@@ -178,17 +196,51 @@ public class SetupWizardActivity extends Activity implements SetupDataCallbacks,
             mSetupData.onResume();
             onPageTreeChanged();
             enableButtonBar(true);
+            if (mPendingLaunch != null) {
+                final Runnable launch = mPendingLaunch;
+                mPendingLaunch = null;
+                launch.run();
+            }
         }
     }
 
     @Override
     protected void onPause() {
         super.onPause();
+        mPendingLaunch = null;
         if (mSetupData != null) {
             mSetupData.onPause();
         }
     }
 
+    @Override
+    protected void onActivityResult(int requestCode, int resultCode, Intent data) {
+        final String key = mRequestPageKeys.get(requestCode);
+        mRequestPageKeys.remove(requestCode);
+        // The keys don't survive the process being killed, the current page
+        // is the one that launched it then
+        final Page page = key != null ? mSetupData.getPage(key) : mSetupData.getCurrentPage();
+        if (page != null) {
+            page.onActivityResult(requestCode, resultCode, data);
+        }
+    }
+
+    @Override
+    public void launchActivityForResult(Page page, final Intent intent, final int requestCode,
+            final Bundle options) {
+        mRequestPageKeys.put(requestCode, page.getKey());
+        if (isResumed()) {
+            startActivityForResult(intent, requestCode, options);
+        } else {
+            mPendingLaunch = new Runnable() {
+                @Override
+                public void run() {
+                    startActivityForResult(intent, requestCode, options);
+                }
+            };
+        }
+    }
+
     @Override
     protected void onDestroy() {
         super.onDestroy();
@@ -201,6 +253,38 @@ public class SetupWizardActivity extends Activity implements SetupDataCallbacks,
         }
     }
 
+    @Override
+    public void onConfigurationChanged(Configuration newConfig) {
+        super.onConfigurationChanged(newConfig);
+        if (newConfig.locale != null && !newConfig.locale.equals(mLocale)) {
+            mLocale = newConfig.locale;
+            rebindStrings();
+        }
+    }
+
+    /**
+     * Picks up a new locale without recreating the activity, the setup data and
+     * the retained fragments stay as they are.
+     */
+    private void rebindStrings() {
+        updateButtonBar();
+        updateLaunchPlaceholder();
+        if (isFinishing() || mSetupData.isFinished()) {
+            return;
+        }
+        // Re-inflate the current page, its onResume sets the title again
+        final Fragment fragment =
+                getFragmentManager().findFragmentByTag(mSetupData.getCurrentPage().getKey());
+        if (fragment != null) {
+            // Don't slide the same page in again, loading a page sets this anew
+            fragment.setEnterTransition(null);
+            getFragmentManager().beginTransaction()
+                    .detach(fragment)
+                    .attach(fragment)
+                    .commitAllowingStateLoss();
+        }
+    }
+
     @Override
     public Object onRetainNonConfigurationInstance() {
         return mSetupData;
@@ -246,12 +330,41 @@ public class SetupWizardActivity extends Activity implements SetupDataCallbacks,
     @Override
     public void onPageLoaded(Page page) {
         updateButtonBar();
+        updateLaunchPlaceholder();
         enableButtonBar(true);
     }
 
     @Override
     public void onPageTreeChanged() {
         updateButtonBar();
+        updateLaunchPlaceholder();
+    }
+
+    /**
+     * Pages that only launch another activity have no fragment of their own, the
+     * page before them is dropped and one shared placeholder shows instead.
+     */
+    private void updateLaunchPlaceholder() {
+        if (mSetupData.isFinished()) {
+            return;
+        }
+        if (mSetupData.getCurrentPage() instanceof ActivityLaunchPage) {
+            final Fragment fragment = getFragmentManager().findFragmentById(R.id.content);
+            if (fragment != null) {
+                getFragmentManager().beginTransaction()
+                        .remove(fragment)
+                        .commitAllowingStateLoss();
+            }
+            if (mLaunchPlaceholder == null) {
+                mLaunchPlaceholder =
+                        ((ViewStub) findViewById(R.id.launch_placeholder_stub)).inflate();
+            }
+            ((TextView) mLaunchPlaceholder.findViewById(android.R.id.title))
+                    .setText(mSetupData.getCurrentPage().getTitleResId());
+            mLaunchPlaceholder.setVisibility(View.VISIBLE);
+        } else if (mLaunchPlaceholder != null) {
+            mLaunchPlaceholder.setVisibility(View.GONE);
+        }
     }
 
     private void enableButtonBar(boolean enabled) {
@@ -326,6 +439,8 @@ public class SetupWizardActivity extends Activity implements SetupDataCallbacks,
         final SetupWizardApp setupWizardApp = (SetupWizardApp)getApplication();
         setupWizardApp.enableStatusBar();
         setupWizardApp.enableCaptivePortalDetection();
+        WifiWarmer.stop();
+        SimLocaleResolver.stop();
         Animation fadeIn = AnimationUtils.loadAnimation(this, android.R.anim.fade_in);
         mFinishingProgressBar.setVisibility(View.VISIBLE);
         mFinishingProgressBar.setIndeterminate(true);
@@ -0,0 +1,297 @@
+/*
+ * Copyright (C) 2015 The Tesla OS
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tesla.setupwizard.util;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.net.Network;
+import android.os.SystemClock;
+import android.provider.Settings;
+import android.text.TextUtils;
+import android.util.Log;
+
+import com.tesla.setupwizard.R;
+import com.tesla.setupwizard.SetupWizardApp;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Finds out whether a network is behind a captive portal. HTTP and HTTPS probes
+ * against every configured server run at the same time, the first one with a
+ * clear answer decides and the rest are dropped. The fallback urls are only
+ * tried when none of those could tell.
+ */
+public class CaptivePortalProber {
+
+    private static final String TAG = CaptivePortalProber.class.getSimpleName();
+
+    public static final int RESULT_INCONCLUSIVE = 0;
+    public static final int RESULT_VALIDATED = 1;
+    public static final int RESULT_PORTAL = 2;
+
+    private static final String DEFAULT_SERVER = "clients3.google.com";
+
+    private static final String SETTING_SERVER = "captive_portal_server";
+    private static final String SETTING_HTTP_URL = "captive_portal_http_url";
+    private static final String SETTING_HTTPS_URL = "captive_portal_https_url";
+    private static final String SETTING_FALLBACK_URL = "captive_portal_fallback_url";
+
+    private static final int PROBE_TIMEOUT_MS = 5000;
+    // Connecting and reading each time out on their own, this only catches a stuck probe
+    private static final int RACE_TIMEOUT_MS = 2 * PROBE_TIMEOUT_MS + 1000;
+
+    private static final int MAX_PROBE_THREADS = 4;
+
+    private static final ThreadPoolExecutor sProbeExecutor;
+
+    static {
+        sProbeExecutor = new ThreadPoolExecutor(MAX_PROBE_THREADS, MAX_PROBE_THREADS,
+                30, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>());
+        sProbeExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    private static final int KIND_HTTP = 0;
+    private static final int KIND_HTTPS = 1;
+    private static final int KIND_FALLBACK = 2;
+    private static final String[] KIND_NAMES = { "http", "https", "fallback" };
+
+    // Upper bounds of the latency buckets, the last bucket takes everything slower
+    private static final int[] LATENCY_BUCKETS_MS = { 100, 250, 500, 1000, 2500, 5000 };
+    private static final int[][] sLatencyCounts =
+            new int[KIND_NAMES.length][LATENCY_BUCKETS_MS.length + 1];
+
+    private final List<URL> mHttpUrls;
+    private final List<URL> mHttpsUrls;
+    private final List<URL> mFallbackUrls;
+
+    public CaptivePortalProber(List<URL> httpUrls, List<URL> httpsUrls,
+            List<URL> fallbackUrls) {
+        mHttpUrls = httpUrls;
+        mHttpsUrls = httpsUrls;
+        mFallbackUrls = fallbackUrls;
+    }
+
+    /**
+     * Probes the servers from the global settings, or the defaults from config.xml.
+     */
+    public static CaptivePortalProber fromSettings(Context context) {
+        final ContentResolver cr = context.getContentResolver();
+        final List<URL> httpUrls = new ArrayList<URL>();
+        final List<URL> httpsUrls = new ArrayList<URL>();
+        final List<URL> fallbackUrls = new ArrayList<URL>();
+
+        final List<String> servers = new ArrayList<String>();
+        final String server = Settings.Global.getString(cr, SETTING_SERVER);
+        servers.add(server != null ? server : DEFAULT_SERVER);
+        for (String extra : context.getResources().getStringArray(
+                R.array.captive_portal_extra_servers)) {
+            if (!servers.contains(extra)) {
+                servers.add(extra);
+            }
+        }
+
+        final String httpUrl = Settings.Global.getString(cr, SETTING_HTTP_URL);
+        final String httpsUrl = Settings.Global.getString(cr, SETTING_HTTPS_URL);
+        addUrl(httpUrls, httpUrl != null ? httpUrl : getProbeUrl("http", servers.get(0)));
+        addUrl(httpsUrls, httpsUrl != null ? httpsUrl : getProbeUrl("https", servers.get(0)));
+        for (int i = 1; i < servers.size(); i++) {
+            addUrl(httpUrls, getProbeUrl("http", servers.get(i)));
+            addUrl(httpsUrls, getProbeUrl("https", servers.get(i)));
+        }
+
+        final String fallbackUrl = Settings.Global.getString(cr, SETTING_FALLBACK_URL);
+        if (!TextUtils.isEmpty(fallbackUrl)) {
+            addUrl(fallbackUrls, fallbackUrl);
+        }
+        for (String url : context.getResources().getStringArray(
+                R.array.captive_portal_fallback_urls)) {
+            addUrl(fallbackUrls, url);
+        }
+        return new CaptivePortalProber(httpUrls, httpsUrls, fallbackUrls);
+    }
+
+    private static String getProbeUrl(String scheme, String server) {
+        return scheme + "://" + server + "/generate_204";
+    }
+
+    private static void addUrl(List<URL> urls, String url) {
+        try {
+            urls.add(new URL(url));
+        } catch (MalformedURLException e) {
+            Log.e(TAG, "Not a valid url " + url, e);
+        }
+    }
+
+    /**
+     * Don't run on UI thread. Interrupting the calling thread stops the probe and
+     * drops the connections of every probe still running.
+     *
+     * @param network The network to probe through, or null for the default one.
+     * @return {@link #RESULT_INCONCLUSIVE} if no probe got a clear answer.
+     */
+    public int probe(Network network) {
+        final long start = SystemClock.elapsedRealtime();
+        final List<Probe> probes = new ArrayList<Probe>();
+        for (URL url : mHttpUrls) {
+            probes.add(new Probe(network, url, KIND_HTTP));
+        }
+        for (URL url : mHttpsUrls) {
+            probes.add(new Probe(network, url, KIND_HTTPS));
+        }
+        int result = race(probes);
+        if (result == RESULT_INCONCLUSIVE && !mFallbackUrls.isEmpty()
+                && !Thread.currentThread().isInterrupted()) {
+            probes.clear();
+            for (URL url : mFallbackUrls) {
+                probes.add(new Probe(network, url, KIND_FALLBACK));
+            }
+            result = race(probes);
+        }
+        if (SetupWizardApp.DEBUG) {
+            Log.d(TAG, "Probe result " + result + " after "
+                    + (SystemClock.elapsedRealtime() - start) + "ms, latencies "
+                    + dumpLatencies());
+        }
+        return result;
+    }
+
+    private static int race(List<Probe> probes) {
+        final ExecutorCompletionService<Integer> completionService =
+                new ExecutorCompletionService<Integer>(sProbeExecutor);
+        for (Probe probe : probes) {
+            completionService.submit(probe);
+        }
+        int result = RESULT_INCONCLUSIVE;
+        try {
+            for (int i = 0; i < probes.size() && result == RESULT_INCONCLUSIVE; i++) {
+                final Future<Integer> future =
+                        completionService.poll(RACE_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+                if (future == null) {
+                    break;
+                }
+                try {
+                    result = future.get();
+                } catch (ExecutionException e) {
+                    Log.e(TAG, "Probe failed", e.getCause());
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            // The losers are only waiting on the network, drop their connections
+            for (Probe probe : probes) {
+                probe.cancel();
+            }
+        }
+        return result;
+    }
+
+    private static void recordLatency(int kind, long latencyMs) {
+        int bucket = 0;
+        while (bucket < LATENCY_BUCKETS_MS.length && latencyMs > LATENCY_BUCKETS_MS[bucket]) {
+            bucket++;
+        }
+        synchronized (sLatencyCounts) {
+            sLatencyCounts[kind][bucket]++;
+        }
+    }
+
+    private static String dumpLatencies() {
+        final StringBuilder sb = new StringBuilder();
+        synchronized (sLatencyCounts) {
+            for (int kind = 0; kind < KIND_NAMES.length; kind++) {
+                sb.append(KIND_NAMES[kind]).append(Arrays.toString(sLatencyCounts[kind]))
+                        .append(' ');
+            }
+        }
+        sb.append("buckets ").append(Arrays.toString(LATENCY_BUCKETS_MS));
+        return sb.toString();
+    }
+
+    private static class Probe implements Callable<Integer> {
+        private final Network mNetwork;
+        private final URL mUrl;
+        private final int mKind;
+        private volatile boolean mCancelled;
+        private volatile HttpURLConnection mConnection;
+
+        public Probe(Network network, URL url, int kind) {
+            mNetwork = network;
+            mUrl = url;
+            mKind = kind;
+        }
+
+        public void cancel() {
+            mCancelled = true;
+            final HttpURLConnection connection = mConnection;
+            if (connection != null) {
+                connection.disconnect();
+            }
+        }
+
+        @Override
+        public Integer call() {
+            if (mCancelled) {
+                return RESULT_INCONCLUSIVE;
+            }
+            final long start = SystemClock.elapsedRealtime();
+            HttpURLConnection connection = null;
+            try {
+                connection = (HttpURLConnection) (mNetwork != null
+                        ? mNetwork.openConnection(mUrl) : mUrl.openConnection());
+                mConnection = connection;
+                if (mCancelled) {
+                    return RESULT_INCONCLUSIVE;
+                }
+                connection.setInstanceFollowRedirects(false);
+                connection.setConnectTimeout(PROBE_TIMEOUT_MS);
+                connection.setReadTimeout(PROBE_TIMEOUT_MS);
+                connection.setUseCaches(false);
+                final int responseCode = connection.getResponseCode();
+                recordLatency(mKind, SystemClock.elapsedRealtime() - start);
+                if (responseCode == 204) {
+                    return RESULT_VALIDATED;
+                }
+                // A portal can't answer for the real server over HTTPS, so anything
+                // else there is just a broken server
+                return mKind == KIND_HTTPS ? RESULT_INCONCLUSIVE : RESULT_PORTAL;
+            } catch (IOException e) {
+                if (SetupWizardApp.DEBUG && !mCancelled) {
+                    Log.d(TAG, "Probe of " + mUrl + " failed: " + e);
+                }
+                return RESULT_INCONCLUSIVE;
+            } finally {
+                if (connection != null) {
+                    connection.disconnect();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,204 @@
+/*
+ * Copyright (C) 2015 The Tesla OS
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tesla.setupwizard.util;
+
+import android.content.Context;
+import android.content.res.Resources;
+import android.net.SntpClient;
+import android.os.SystemClock;
+import android.provider.Settings;
+import android.telephony.SubscriptionInfo;
+import android.telephony.SubscriptionManager;
+import android.telephony.TelephonyManager;
+import android.text.TextUtils;
+import android.util.Log;
+
+import com.android.internal.telephony.MccTable;
+import com.tesla.setupwizard.SetupWizardApp;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.TimeZone;
+
+/**
+ * Works out a likely timezone and the current time without waiting for the
+ * network to push them, so the date/time page can be preselected or skipped.
+ */
+public class DateTimeSuggester {
+
+    private static final String TAG = DateTimeSuggester.class.getSimpleName();
+
+    private static final int NTP_TIMEOUT_MS = 5000;
+
+    public static final int CONFIDENCE_NONE = 0;
+    public static final int CONFIDENCE_LOW = 1;
+    public static final int CONFIDENCE_HIGH = 2;
+
+    public static class Suggestion {
+        private String mTimeZoneId;
+        private int mTimeZoneConfidence = CONFIDENCE_NONE;
+        private boolean mHasTime;
+        private long mNtpTime;
+        private long mNtpTimeReference;
+
+        public String getTimeZoneId() {
+            return mTimeZoneId;
+        }
+
+        public int getTimeZoneConfidence() {
+            return mTimeZoneConfidence;
+        }
+
+        public boolean hasTime() {
+            return mHasTime;
+        }
+
+        /**
+         * The current time according to the time server, valid if {@link #hasTime()}.
+         */
+        public long currentTimeMillis() {
+            return mNtpTime + SystemClock.elapsedRealtime() - mNtpTimeReference;
+        }
+
+        @Override
+        public String toString() {
+            return "Suggestion{" + mTimeZoneId + " confidence=" + mTimeZoneConfidence
+                    + " hasTime=" + mHasTime + "}";
+        }
+    }
+
+    private DateTimeSuggester(){}
+
+    /**
+     * Don't run on UI thread, this may query a time server.
+     *
+     * @param locale The locale picked by the user.
+     * @param queryTime Whether to ask the time server for the current time.
+     */
+    public static Suggestion suggest(Context context, Locale locale, boolean queryTime) {
+        final Suggestion suggestion = new Suggestion();
+        suggestTimeZone(context, locale, suggestion);
+        if (queryTime) {
+            requestTime(context, suggestion);
+        }
+        if (SetupWizardApp.DEBUG) {
+            Log.d(TAG, "Suggesting " + suggestion);
+        }
+        return suggestion;
+    }
+
+    private static void suggestTimeZone(Context context, Locale locale, Suggestion suggestion) {
+        // Only the serving network knows where we are. The sim is only where it was
+        // bought, the user may be roaming, and the locale may just be what the
+        // device shipped with
+        String country = getNetworkCountry(context);
+        int confidence = CONFIDENCE_HIGH;
+        if (TextUtils.isEmpty(country)) {
+            country = getSimCountry(context);
+            confidence = CONFIDENCE_LOW;
+        }
+        if (TextUtils.isEmpty(country) && locale != null) {
+            country = locale.getCountry();
+        }
+        if (TextUtils.isEmpty(country)) {
+            return;
+        }
+        final List<String> ids =
+                TimeZoneProvider.getCountryZoneIds(country.toLowerCase(Locale.US));
+        if (ids.isEmpty()) {
+            return;
+        }
+        // Zones that share today's offset may still switch to summer time on
+        // different days, only a single set of rules is a sure pick
+        final List<TimeZone> rules = new ArrayList<TimeZone>();
+        for (String id : ids) {
+            final TimeZone zone = TimeZone.getTimeZone(id);
+            if (!hasSameRules(rules, zone)) {
+                rules.add(zone);
+            }
+        }
+        if (rules.size() > 1) {
+            confidence = CONFIDENCE_LOW;
+        }
+        // Keep the current zone if it is one of the country's, a default like
+        // "GMT" may have the same rules but isn't a place
+        final String currentId = TimeZone.getDefault().getID();
+        suggestion.mTimeZoneId = ids.contains(currentId) ? currentId : ids.get(0);
+        suggestion.mTimeZoneConfidence = confidence;
+    }
+
+    private static boolean hasSameRules(List<TimeZone> zones, TimeZone tz) {
+        for (TimeZone zone : zones) {
+            if (zone.hasSameRules(tz)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String getNetworkCountry(Context context) {
+        if (!SetupWizardUtils.hasTelephony(context)) {
+            return null;
+        }
+        final TelephonyManager tm =
+                (TelephonyManager) context.getSystemService(Context.TELEPHONY_SERVICE);
+        return tm.getNetworkCountryIso();
+    }
+
+    private static String getSimCountry(Context context) {
+        if (!SetupWizardUtils.hasTelephony(context)) {
+            return null;
+        }
+        final List<SubscriptionInfo> activeSubs =
+                SubscriptionManager.from(context).getActiveSubscriptionInfoList();
+        if (activeSubs != null) {
+            for (SubscriptionInfo info : activeSubs) {
+                final String simCountry = MccTable.countryCodeForMcc(info.getMcc());
+                if (!TextUtils.isEmpty(simCountry)) {
+                    return simCountry;
+                }
+            }
+        }
+        return null;
+    }
+
+    private static void requestTime(Context context, Suggestion suggestion) {
+        final String server = getNtpServer(context);
+        if (TextUtils.isEmpty(server)) {
+            return;
+        }
+        final SntpClient client = new SntpClient();
+        if (client.requestTime(server, NTP_TIMEOUT_MS)) {
+            suggestion.mHasTime = true;
+            suggestion.mNtpTime = client.getNtpTime();
+            suggestion.mNtpTimeReference = client.getNtpTimeReference();
+        } else {
+            Log.w(TAG, "Unable to get time from " + server);
+        }
+    }
+
+    private static String getNtpServer(Context context) {
+        final String server = Settings.Global.getString(context.getContentResolver(),
+                Settings.Global.NTP_SERVER);
+        if (server != null) {
+            return server;
+        }
+        return Resources.getSystem().getString(
+                com.android.internal.R.string.config_ntpServer);
+    }
+}
@@ -0,0 +1,220 @@
+/*
+ * Copyright (C) 2015 The Tesla OS
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tesla.setupwizard.util;
+
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.Intent;
+import android.content.pm.ActivityInfo;
+import android.content.pm.PackageManager;
+import android.content.pm.ResolveInfo;
+import android.net.ConnectivityManager;
+import android.os.AsyncTask;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.tesla.setupwizard.SetupWizardApp;
+import com.tesla.setupwizard.setup.GmsAccountPage;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The activities setup hands off to. They are all resolved once in the background
+ * when the app starts, so pages whose activity isn't installed can be hidden
+ * ahead of time and launches go straight to the resolved component.
+ */
+public class IntentRegistry {
+
+    private static final String TAG = IntentRegistry.class.getSimpleName();
+
+    public interface Callback {
+        void onIntentsResolved();
+    }
+
+    public static final String ACTION_EMERGENCY_DIAL = "com.android.phone.EmergencyDialer.DIAL";
+    public static final String ACTION_CONNECT_INPUT =
+            "com.google.android.intent.action.CONNECT_INPUT";
+
+    public static final int TARGET_WIFI = 0;
+    public static final int TARGET_FINGERPRINT = 1;
+    public static final int TARGET_GMS_RESTORE = 2;
+    public static final int TARGET_GMS_VENDOR = 3;
+    public static final int TARGET_BLUETOOTH_ACCESSORY = 4;
+    public static final int TARGET_EMERGENCY_DIALER = 5;
+    public static final int TARGET_CAPTIVE_PORTAL = 6;
+    private static final int TARGET_COUNT = 7;
+
+    public static final int AVAILABILITY_UNKNOWN = 0;
+    public static final int AVAILABILITY_AVAILABLE = 1;
+    public static final int AVAILABILITY_MISSING = 2;
+
+    // Only touched on the main thread
+    private static ResolveInfo[] sResolveInfos;
+    private static int[] sMatchCounts;
+    private static ResolveIntentsTask sResolveTask;
+    private static final ArrayList<Callback> sCallbacks = new ArrayList<Callback>();
+
+    private IntentRegistry(){}
+
+    /**
+     * Starts resolving the targets if they aren't resolved or being resolved yet.
+     * Call on the main thread.
+     */
+    public static void preload(Context context) {
+        if (sResolveInfos == null && sResolveTask == null) {
+            sResolveTask = new ResolveIntentsTask(context.getApplicationContext());
+            sResolveTask.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
+        }
+    }
+
+    /**
+     * Runs {@code callback} right away if the targets are resolved, otherwise once
+     * they are. Call on the main thread.
+     */
+    public static void load(Context context, Callback callback) {
+        if (sResolveInfos != null) {
+            callback.onIntentsResolved();
+            return;
+        }
+        if (!sCallbacks.contains(callback)) {
+            sCallbacks.add(callback);
+        }
+        preload(context);
+    }
+
+    public static void cancelLoad(Callback callback) {
+        sCallbacks.remove(callback);
+    }
+
+    /**
+     * @return {@link #AVAILABILITY_UNKNOWN} until the targets are resolved.
+     */
+    public static int getAvailability(int target) {
+        if (sMatchCounts == null) {
+            return AVAILABILITY_UNKNOWN;
+        }
+        return sMatchCounts[target] > 0 ? AVAILABILITY_AVAILABLE : AVAILABILITY_MISSING;
+    }
+
+    public static boolean isMissing(int target) {
+        return getAvailability(target) == AVAILABILITY_MISSING;
+    }
+
+    /**
+     * The best match for {@code target}, or null if it is missing or not resolved yet.
+     */
+    public static ResolveInfo getResolveInfo(int target) {
+        return sResolveInfos != null ? sResolveInfos[target] : null;
+    }
+
+    /**
+     * A new intent for {@code target}, pointed at the resolved activity when there
+     * is exactly one, so starting it doesn't resolve it again.
+     */
+    public static Intent newIntent(Context context, int target) {
+        final Intent intent = buildIntent(context, target);
+        if (sResolveInfos != null && sMatchCounts[target] == 1
+                && intent.getComponent() == null) {
+            final ActivityInfo info = sResolveInfos[target].activityInfo;
+            intent.setComponent(new ComponentName(info.packageName, info.name));
+        }
+        return intent;
+    }
+
+    private static Intent buildIntent(Context context, int target) {
+        switch (target) {
+            case TARGET_WIFI: {
+                final Intent intent = new Intent(SetupWizardApp.ACTION_SETUP_WIFI);
+                if (SetupWizardUtils.hasLeanback(context)) {
+                    intent.setComponent(SetupWizardUtils.mTvwifisettingsActivity);
+                }
+                return intent;
+            }
+            case TARGET_FINGERPRINT:
+                return new Intent(SetupWizardApp.ACTION_SETUP_FINGERPRINT);
+            case TARGET_GMS_RESTORE:
+                return new Intent(GmsAccountPage.ACTION_PROGRESS);
+            case TARGET_GMS_VENDOR: {
+                final Intent intent = new Intent(GmsAccountPage.ACTION_VENDOR_SETUP);
+                intent.setPackage(SetupWizardUtils.GOOGLE_SETUPWIZARD_PACKAGE);
+                return intent;
+            }
+            case TARGET_BLUETOOTH_ACCESSORY: {
+                final Intent intent = new Intent(ACTION_CONNECT_INPUT);
+                intent.setComponent(SetupWizardUtils.mTvAddAccessorySettingsActivity);
+                return intent;
+            }
+            case TARGET_EMERGENCY_DIALER:
+                return new Intent(ACTION_EMERGENCY_DIAL);
+            case TARGET_CAPTIVE_PORTAL:
+                return new Intent(ConnectivityManager.ACTION_CAPTIVE_PORTAL_SIGN_IN);
+        }
+        throw new IllegalArgumentException("Unknown target " + target);
+    }
+
+    private static int getQueryFlags(int target) {
+        int flags = PackageManager.MATCH_DEFAULT_ONLY;
+        if (target == TARGET_GMS_RESTORE || target == TARGET_GMS_VENDOR) {
+            // Google's setup wizard is enabled right before these are launched
+            flags |= PackageManager.GET_DISABLED_COMPONENTS;
+        }
+        return flags;
+    }
+
+    private static class ResolveIntentsTask extends AsyncTask<Void, Void, Void> {
+        private final Context mContext;
+        private final ResolveInfo[] mResolveInfos = new ResolveInfo[TARGET_COUNT];
+        private final int[] mMatchCounts = new int[TARGET_COUNT];
+
+        public ResolveIntentsTask(Context context) {
+            mContext = context;
+        }
+
+        @Override
+        protected Void doInBackground(Void... params) {
+            final long start = SystemClock.elapsedRealtime();
+            final PackageManager pm = mContext.getPackageManager();
+            for (int target = 0; target < TARGET_COUNT; target++) {
+                final List<ResolveInfo> matches = pm.queryIntentActivities(
+                        buildIntent(mContext, target), getQueryFlags(target));
+                if (matches != null && !matches.isEmpty()) {
+                    // Sorted best first
+                    mResolveInfos[target] = matches.get(0);
+                    mMatchCounts[target] = matches.size();
+                }
+            }
+            if (SetupWizardApp.DEBUG) {
+                Log.d(TAG, "Resolved " + TARGET_COUNT + " targets in "
+                        + (SystemClock.elapsedRealtime() - start) + "ms");
+            }
+            return null;
+        }
+
+        @Override
+        protected void onPostExecute(Void result) {
+            sResolveInfos = mResolveInfos;
+            sMatchCounts = mMatchCounts;
+            sResolveTask = null;
+            final ArrayList<Callback> callbacks = new ArrayList<Callback>(sCallbacks);
+            sCallbacks.clear();
+            for (Callback callback : callbacks) {
+                callback.onIntentsResolved();
+            }
+        }
+    }
+}
@@ -0,0 +1,271 @@
+/*
+ * Copyright (C) 2015 The Tesla OS
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tesla.setupwizard.util;
+
+import android.content.Context;
+import android.os.AsyncTask;
+import android.os.SystemClock;
+import android.util.Log;
+import android.widget.ArrayAdapter;
+
+import com.android.internal.app.LocalePicker.LocaleInfo;
+import com.tesla.setupwizard.R;
+import com.tesla.setupwizard.SetupWizardApp;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Locale;
+
+/**
+ * The languages offered on the welcome page. Built once per process in the
+ * background, the labels are each locale's name in its own language so they
+ * stay valid when the user switches locale. The locales are also grouped by
+ * language, for picking the language first and the region second.
+ */
+public class LocaleModel {
+
+    private static final String TAG = LocaleModel.class.getSimpleName();
+
+    public interface Callback {
+        void onLocaleModelLoaded(LocaleModel model);
+    }
+
+    // Only touched on the main thread
+    private static LocaleModel sLocaleModel;
+    private static LoadLocaleModelTask sLoadTask;
+    private static final ArrayList<Callback> sCallbacks = new ArrayList<Callback>();
+
+    private final Locale[] mLocales;
+    private final String[] mLabels;
+    // Language tag, language_COUNTRY and language alone, to the first matching index
+    private final HashMap<String, Integer> mIndices = new HashMap<String, Integer>();
+
+    // Languages in the order they first appear, each with its regions in list order
+    private final String[] mLanguageLabels;
+    private final String[][] mRegionLabels;
+    private final int[][] mGroupedIndices;
+    // Per locale index, the language group and the position within it
+    private final int[] mLanguageOf;
+    private final int[] mRegionOf;
+
+    private LocaleModel(ArrayAdapter<LocaleInfo> adapter) {
+        final int count = adapter.getCount();
+        mLocales = new Locale[count];
+        mLabels = new String[count];
+        for (int i = 0; i < count; i++) {
+            final LocaleInfo info = adapter.getItem(i);
+            mLocales[i] = info.getLocale();
+            mLabels[i] = info.getLabel();
+        }
+        // Later passes only fill in keys the stricter ones didn't claim
+        for (int i = 0; i < count; i++) {
+            putIndex(mLocales[i].toLanguageTag(), i);
+        }
+        for (int i = 0; i < count; i++) {
+            putIndex(getCountryKey(mLocales[i]), i);
+        }
+        for (int i = 0; i < count; i++) {
+            putIndex(mLocales[i].getLanguage(), i);
+        }
+
+        mLanguageOf = new int[count];
+        mRegionOf = new int[count];
+        final HashMap<String, Integer> groups = new HashMap<String, Integer>();
+        final ArrayList<Integer> groupSizes = new ArrayList<Integer>();
+        for (int i = 0; i < count; i++) {
+            final String language = mLocales[i].getLanguage();
+            Integer group = groups.get(language);
+            if (group == null) {
+                group = groupSizes.size();
+                groups.put(language, group);
+                groupSizes.add(0);
+            }
+            mLanguageOf[i] = group;
+            mRegionOf[i] = groupSizes.get(group);
+            groupSizes.set(group, mRegionOf[i] + 1);
+        }
+        final int groupCount = groupSizes.size();
+        mLanguageLabels = new String[groupCount];
+        mRegionLabels = new String[groupCount][];
+        mGroupedIndices = new int[groupCount][];
+        for (int group = 0; group < groupCount; group++) {
+            mRegionLabels[group] = new String[groupSizes.get(group)];
+            mGroupedIndices[group] = new int[groupSizes.get(group)];
+        }
+        for (int i = 0; i < count; i++) {
+            final int group = mLanguageOf[i];
+            final int region = mRegionOf[i];
+            mGroupedIndices[group][region] = i;
+            mRegionLabels[group][region] = getRegionLabel(mLocales[i], mLabels[i]);
+            if (region == 0) {
+                mLanguageLabels[group] = getLanguageLabel(mLocales[i], mLabels[i]);
+            }
+        }
+    }
+
+    private static String getLanguageLabel(Locale locale, String fallback) {
+        final String language = locale.getDisplayLanguage(locale);
+        if (language.isEmpty()) {
+            return fallback;
+        }
+        return language.substring(0, 1).toUpperCase(locale) + language.substring(1);
+    }
+
+    private static String getRegionLabel(Locale locale, String fallback) {
+        final String country = locale.getDisplayCountry(locale);
+        return country.isEmpty() ? fallback : country;
+    }
+
+    private void putIndex(String key, int index) {
+        if (!mIndices.containsKey(key)) {
+            mIndices.put(key, index);
+        }
+    }
+
+    private static String getCountryKey(Locale locale) {
+        return locale.getLanguage() + '_' + locale.getCountry();
+    }
+
+    /**
+     * Starts building the model if it isn't built or being built yet.
+     * Call on the main thread.
+     */
+    public static void preload(Context context) {
+        if (sLocaleModel == null && sLoadTask == null) {
+            sLoadTask = new LoadLocaleModelTask(context.getApplicationContext());
+            sLoadTask.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
+        }
+    }
+
+    /**
+     * Runs {@code callback} right away if the model is built, otherwise once it is.
+     * Call on the main thread.
+     */
+    public static void load(Context context, Callback callback) {
+        if (sLocaleModel != null) {
+            callback.onLocaleModelLoaded(sLocaleModel);
+            return;
+        }
+        if (!sCallbacks.contains(callback)) {
+            sCallbacks.add(callback);
+        }
+        preload(context);
+    }
+
+    public static void cancelLoad(Callback callback) {
+        sCallbacks.remove(callback);
+    }
+
+    public int getCount() {
+        return mLocales.length;
+    }
+
+    public Locale getLocale(int index) {
+        return mLocales[index];
+    }
+
+    /**
+     * The index of {@code locale}, or else of the same language and country, or
+     * else of the same language. Returns -1 if the language isn't offered.
+     */
+    public int indexOf(Locale locale) {
+        Integer index = mIndices.get(locale.toLanguageTag());
+        if (index == null) {
+            index = mIndices.get(getCountryKey(locale));
+        }
+        if (index == null) {
+            index = mIndices.get(locale.getLanguage());
+        }
+        return index != null ? index : -1;
+    }
+
+    /**
+     * Shared with every caller, don't modify.
+     */
+    public String[] getLabels() {
+        return mLabels;
+    }
+
+    public int getLanguageCount() {
+        return mLanguageLabels.length;
+    }
+
+    /**
+     * Shared with every caller, don't modify.
+     */
+    public String[] getLanguageLabels() {
+        return mLanguageLabels;
+    }
+
+    /**
+     * The regions of the language group, shared with every caller, don't modify.
+     */
+    public String[] getRegionLabels(int language) {
+        return mRegionLabels[language];
+    }
+
+    public Locale getLocale(int language, int region) {
+        return mLocales[mGroupedIndices[language][region]];
+    }
+
+    /**
+     * The language group of the locale at {@code index}.
+     */
+    public int getLanguageOf(int index) {
+        return mLanguageOf[index];
+    }
+
+    /**
+     * The position of the locale at {@code index} within its language group.
+     */
+    public int getRegionOf(int index) {
+        return mRegionOf[index];
+    }
+
+    private static class LoadLocaleModelTask extends AsyncTask<Void, Void, LocaleModel> {
+        private final Context mContext;
+
+        public LoadLocaleModelTask(Context context) {
+            mContext = context;
+        }
+
+        @Override
+        protected LocaleModel doInBackground(Void... params) {
+            final long start = SystemClock.elapsedRealtime();
+            final LocaleModel model = new LocaleModel(
+                    com.android.internal.app.LocalePicker.constructAdapter(mContext,
+                            R.layout.locale_picker_item, R.id.locale));
+            if (SetupWizardApp.DEBUG) {
+                Log.d(TAG, "Loaded " + model.getCount() + " locales in "
+                        + model.getLanguageCount() + " languages in "
+                        + (SystemClock.elapsedRealtime() - start) + "ms");
+            }
+            return model;
+        }
+
+        @Override
+        protected void onPostExecute(LocaleModel model) {
+            sLocaleModel = model;
+            sLoadTask = null;
+            final ArrayList<Callback> callbacks = new ArrayList<Callback>(sCallbacks);
+            sCallbacks.clear();
+            for (Callback callback : callbacks) {
+                callback.onLocaleModelLoaded(model);
+            }
+        }
+    }
+}
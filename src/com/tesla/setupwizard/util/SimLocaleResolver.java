@@ -0,0 +1,252 @@
+/*
+ * Copyright (C) 2015 The Tesla OS
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tesla.setupwizard.util;
+
+import android.content.Context;
+import android.os.AsyncTask;
+import android.telephony.SubscriptionInfo;
+import android.telephony.SubscriptionManager;
+import android.telephony.TelephonyManager;
+import android.util.Log;
+
+import com.android.internal.telephony.MccTable;
+import com.tesla.setupwizard.SetupWizardApp;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Works out the locale suggested by the inserted sims. Only one lookup runs at a
+ * time and callers asking meanwhile share its result. The answer is kept until
+ * the active subscriptions change, so repeated sim broadcasts get it right away,
+ * and the locale for each subscription and MCC is remembered for the rest of setup.
+ */
+public class SimLocaleResolver {
+
+    private static final String TAG = SimLocaleResolver.class.getSimpleName();
+
+    public interface Callback {
+        /**
+         * @param locale The sim locale, or null if there is none.
+         */
+        void onSimLocaleResolved(Locale locale);
+    }
+
+    // Stands in for "this sim has no locale" in the cache
+    private static final Locale NO_LOCALE = new Locale("");
+
+    // Subscriptions that keep changing while a lookup runs get no more lookups than this
+    private static final int MAX_LOOKUPS = 3;
+
+    // Keyed by subscription id and MCC, only touched by the running lookup
+    private static final HashMap<String, Locale> sMccLocales = new HashMap<String, Locale>();
+
+    // Only touched on the main thread
+    private static ResolveSimLocaleTask sTask;
+    private static int sLookups;
+    private static SubscriptionManager sSubscriptionManager;
+    private static SubscriptionManager.OnSubscriptionsChangedListener sSubscriptionsListener;
+    // The registry reports the current subscriptions to a new listener, that isn't a change
+    private static boolean sSubscriptionsListenerPrimed;
+    // Bumped whenever the active subscriptions change
+    private static int sSubscriptionsGeneration;
+    private static boolean sHasResult;
+    private static Locale sResult;
+    private static String sResultSubscriptions;
+    private static final ArrayList<Callback> sCallbacks = new ArrayList<Callback>();
+
+    private SimLocaleResolver(){}
+
+    /**
+     * Runs {@code callback} with the sim locale, right away if the active
+     * subscriptions haven't changed since the last lookup, otherwise once the
+     * current or a new lookup finishes. Call on the main thread.
+     */
+    public static void resolve(Context context, Callback callback) {
+        listenForSubscriptions(context);
+        if (sHasResult) {
+            callback.onSimLocaleResolved(sResult);
+            return;
+        }
+        if (!sCallbacks.contains(callback)) {
+            sCallbacks.add(callback);
+        }
+        if (sTask == null) {
+            sLookups = 0;
+            startLookup(context.getApplicationContext());
+        }
+    }
+
+    public static void cancel(Callback callback) {
+        sCallbacks.remove(callback);
+    }
+
+    /**
+     * Stops following the active subscriptions, called when setup finishes. Call
+     * on the main thread.
+     */
+    public static void stop() {
+        if (sSubscriptionsListener == null) {
+            return;
+        }
+        sSubscriptionManager.removeOnSubscriptionsChangedListener(sSubscriptionsListener);
+        sSubscriptionsListener = null;
+        sSubscriptionManager = null;
+        // Changes are no longer seen, so the answer can't be trusted either
+        sHasResult = false;
+    }
+
+    private static void listenForSubscriptions(Context context) {
+        if (sSubscriptionsListener != null) {
+            return;
+        }
+        sSubscriptionsListener = new SubscriptionManager.OnSubscriptionsChangedListener() {
+            @Override
+            public void onSubscriptionsChanged() {
+                if (!sSubscriptionsListenerPrimed) {
+                    sSubscriptionsListenerPrimed = true;
+                    return;
+                }
+                // Also covers a sim being unlocked, its subscription only becomes active then
+                sSubscriptionsGeneration++;
+                sHasResult = false;
+            }
+        };
+        sSubscriptionsListenerPrimed = false;
+        sSubscriptionManager = SubscriptionManager.from(context.getApplicationContext());
+        sSubscriptionManager.addOnSubscriptionsChangedListener(sSubscriptionsListener);
+    }
+
+    private static void startLookup(Context context) {
+        sLookups++;
+        sTask = new ResolveSimLocaleTask(context, sSubscriptionsGeneration);
+        sTask.execute();
+    }
+
+    /**
+     * The active subscriptions with their MCCs in slot order, or null if there are none.
+     */
+    private static String getSubscriptionsKey(List<SubscriptionInfo> activeSubs) {
+        if (activeSubs == null || activeSubs.isEmpty()) {
+            return null;
+        }
+        final StringBuilder key = new StringBuilder();
+        for (SubscriptionInfo info : activeSubs) {
+            key.append(info.getSubscriptionId()).append(':').append(info.getMcc()).append(',');
+        }
+        return key.toString();
+    }
+
+    private static Locale resolveSimLocale(Context context, TelephonyManager telephonyManager,
+            List<SubscriptionInfo> activeSubs) {
+        // Fetch locale for the active sims' MCCs, in slot order
+        for (SubscriptionInfo info : activeSubs) {
+            final int mcc = info.getMcc();
+            final String key = info.getSubscriptionId() + ":" + mcc;
+            Locale locale = sMccLocales.get(key);
+            if (locale == null) {
+                locale = MccTable.getLocaleFromMcc(context, mcc, null);
+                sMccLocales.put(key, locale != null ? locale : NO_LOCALE);
+            }
+            if (locale != null && locale != NO_LOCALE) {
+                return locale;
+            }
+        }
+
+        // If that fails, fall back to preferred languages reported
+        // by the sim
+        final String localeString = telephonyManager.getLocaleFromDefaultSim();
+        if (localeString != null) {
+            return Locale.forLanguageTag(localeString);
+        }
+        return null;
+    }
+
+    private static class ResolveSimLocaleTask extends AsyncTask<Void, Void, Locale> {
+        private final Context mContext;
+        private final int mGeneration;
+        // The last answer and what it was for, handed back if the subscriptions match
+        private final String mPreviousSubscriptions;
+        private final Locale mPreviousResult;
+        private String mSubscriptions;
+        private boolean mLocked;
+
+        public ResolveSimLocaleTask(Context context, int generation) {
+            mContext = context;
+            mGeneration = generation;
+            mPreviousSubscriptions = sResultSubscriptions;
+            mPreviousResult = sResult;
+        }
+
+        @Override
+        protected Locale doInBackground(Void... params) {
+            // If the sim is currently pin locked, return
+            final TelephonyManager telephonyManager = (TelephonyManager)
+                    mContext.getSystemService(Context.TELEPHONY_SERVICE);
+            final int state = telephonyManager.getSimState();
+            if (state == TelephonyManager.SIM_STATE_PIN_REQUIRED ||
+                    state == TelephonyManager.SIM_STATE_PUK_REQUIRED) {
+                mLocked = true;
+                return null;
+            }
+
+            final List<SubscriptionInfo> activeSubs =
+                    SubscriptionManager.from(mContext).getActiveSubscriptionInfoList();
+            mSubscriptions = getSubscriptionsKey(activeSubs);
+            if (mSubscriptions == null) {
+                return null;
+            }
+            if (mSubscriptions.equals(mPreviousSubscriptions)) {
+                return mPreviousResult;
+            }
+            synchronized (sMccLocales) {
+                return resolveSimLocale(mContext, telephonyManager, activeSubs);
+            }
+        }
+
+        @Override
+        protected void onPostExecute(Locale locale) {
+            sTask = null;
+            if (mGeneration != sSubscriptionsGeneration && sLookups < MAX_LOOKUPS
+                    && !sCallbacks.isEmpty()) {
+                // The sims changed while we looked, this answer may already be stale
+                startLookup(mContext);
+                return;
+            }
+            if (!mLocked) {
+                // An unlock makes the subscription active, which clears this again.
+                // A registry with nothing to report yet skips the first report, then
+                // the sims showing up is the one ignored, so "no sims" waits for it
+                sHasResult = mGeneration == sSubscriptionsGeneration
+                        && (mSubscriptions != null || sSubscriptionsListenerPrimed);
+                sResult = locale;
+                sResultSubscriptions = mSubscriptions;
+            }
+            if (SetupWizardApp.DEBUG) {
+                Log.d(TAG, "Sim locale " + locale + " for " + mSubscriptions
+                        + " after " + sLookups + " lookups");
+            }
+            final ArrayList<Callback> callbacks = new ArrayList<Callback>(sCallbacks);
+            sCallbacks.clear();
+            for (Callback callback : callbacks) {
+                callback.onSimLocaleResolved(locale);
+            }
+        }
+    }
+}
@@ -0,0 +1,170 @@
+/*
+ * Copyright (C) 2015 The Tesla OS
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tesla.setupwizard.util;
+
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.TimeZone;
+
+/**
+ * Builds, sorts and searches the rows of the timezone list. It only needs a pull
+ * parser and no Android classes, so the benchmarks can run it on a plain JVM.
+ */
+public class TimeZoneList {
+
+    public static final String KEY_ID = "id";  // value: String
+    public static final String KEY_DISPLAYNAME = "name";  // value: String
+    public static final String KEY_GMT = "gmt";  // value: String
+    public static final String KEY_OFFSET = "offset";  // value: int (Integer)
+    private static final String XMLTAG_TIMEZONE = "timezone";
+
+    private static final int HOURS_1 = 60 * 60000;
+
+    private TimeZoneList(){}
+
+    /**
+     * Reads the rows of timezones.xml, in file order.
+     *
+     * @param date Time at which the offsets are taken.
+     */
+    public static List<HashMap<String, Object>> parseZones(XmlPullParser xrp, long date)
+            throws XmlPullParserException, IOException {
+        final List<HashMap<String, Object>> myData = new ArrayList<HashMap<String, Object>>();
+        while (xrp.next() != XmlPullParser.START_TAG)
+            continue;
+        xrp.next();
+        while (xrp.getEventType() != XmlPullParser.END_TAG) {
+            while (xrp.getEventType() != XmlPullParser.START_TAG) {
+                if (xrp.getEventType() == XmlPullParser.END_DOCUMENT) {
+                    return myData;
+                }
+                xrp.next();
+            }
+            if (xrp.getName().equals(XMLTAG_TIMEZONE)) {
+                String id = xrp.getAttributeValue(0);
+                String displayName = xrp.nextText();
+                addItem(myData, id, displayName, date);
+            }
+            while (xrp.getEventType() != XmlPullParser.END_TAG) {
+                xrp.next();
+            }
+            xrp.next();
+        }
+
+        return myData;
+    }
+
+    /**
+     * Adds the row for {@code id}, its GMT label and offset taken at {@code date}.
+     */
+    public static void addItem(
+            List<HashMap<String, Object>> myData, String id, String displayName, long date) {
+        final HashMap<String, Object> map = new HashMap<String, Object>();
+        map.put(KEY_ID, id);
+        map.put(KEY_DISPLAYNAME, displayName);
+        final TimeZone tz = TimeZone.getTimeZone(id);
+        final int offset = tz.getOffset(date);
+        final int p = Math.abs(offset);
+        final StringBuilder name = new StringBuilder();
+        name.append("GMT");
+
+        if (offset < 0) {
+            name.append('-');
+        } else {
+            name.append('+');
+        }
+
+        name.append(p / (HOURS_1));
+        name.append(':');
+
+        int min = p / 60000;
+        min %= 60;
+
+        if (min < 10) {
+            name.append('0');
+        }
+        name.append(min);
+
+        map.put(KEY_GMT, name.toString());
+        map.put(KEY_OFFSET, offset);
+
+        myData.add(map);
+    }
+
+    /**
+     * Sorts the rows by their offset.
+     */
+    public static void sortByOffset(List<HashMap<String, Object>> zones) {
+        Collections.sort(zones, new TimeZoneComparator(KEY_OFFSET));
+    }
+
+    /**
+     * The row for exactly {@code tz}, or -1 if it isn't listed.
+     */
+    public static int indexOf(List<HashMap<String, Object>> zones, TimeZone tz) {
+        final String defaultId = tz.getID();
+        final int listSize = zones.size();
+        for (int i = 0; i < listSize; i++) {
+            final String id = (String) zones.get(i).get(KEY_ID);
+            if (defaultId.equals(id)) {
+                // If current timezone is in this list, move focus to it
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static class TimeZoneComparator implements Comparator<HashMap<?, ?>> {
+        private String mSortingKey;
+
+        public TimeZoneComparator(String sortingKey) {
+            mSortingKey = sortingKey;
+        }
+
+        public void setSortingKey(String sortingKey) {
+            mSortingKey = sortingKey;
+        }
+
+        public int compare(HashMap<?, ?> map1, HashMap<?, ?> map2) {
+            Object value1 = map1.get(mSortingKey);
+            Object value2 = map2.get(mSortingKey);
+
+            /*
+             * This should never happen, but just in-case, put non-comparable
+             * items at the end.
+             */
+            if (!isComparable(value1)) {
+                return isComparable(value2) ? 1 : 0;
+            } else if (!isComparable(value2)) {
+                return -1;
+            }
+
+            return ((Comparable) value1).compareTo(value2);
+        }
+
+        private boolean isComparable(Object value) {
+            return (value != null) && (value instanceof Comparable);
+        }
+    }
+}
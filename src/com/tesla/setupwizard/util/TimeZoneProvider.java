@@ -0,0 +1,180 @@
+/*
+ * Copyright (C) 2015 The Tesla OS
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tesla.setupwizard.util;
+
+import android.content.res.Resources;
+import android.content.res.XmlResourceParser;
+import android.util.Log;
+
+import com.android.internal.util.XmlUtils;
+
+import org.xmlpull.v1.XmlPullParserException;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.TimeZone;
+
+/**
+ * Builds a timezone list from the platform tz database instead of a fixed resource.
+ */
+public class TimeZoneProvider {
+
+    private static final String TAG = TimeZoneProvider.class.getSimpleName();
+
+    private static final String XMLTAG_TIMEZONES = "timezones";
+    private static final String XMLTAG_TIMEZONE = "timezone";
+    private static final String XMLATTR_CODE = "code";
+
+    // Legacy ids like "US/Pacific", "Etc/GMT+8" or "EST" are only aliases
+    private static final String[] REGIONS = {
+            "Africa", "America", "Antarctica", "Asia", "Atlantic",
+            "Australia", "Europe", "Indian", "Pacific"
+    };
+
+    private TimeZoneProvider(){}
+
+    /**
+     * Don't run on UI thread, this loads every zone in the tz database.
+     *
+     * @param preferredId Added if no listed zone follows the same rules.
+     * @param date Time at which the offsets are compared and sorted.
+     * @return The canonical zone of every city the platform lists per country,
+     *         sorted by offset and then name.
+     */
+    public static List<TimeZone> getCanonicalZones(String preferredId, long date) {
+        final List<TimeZone> zones = new ArrayList<TimeZone>();
+        final HashSet<String> seen = new HashSet<String>();
+        for (String id : getCountryZoneIds(null)) {
+            if (seen.add(id)) {
+                zones.add(TimeZone.getTimeZone(id));
+            }
+        }
+        if (zones.isEmpty()) {
+            // Without the country list, links are the only thing that can be merged
+            for (String id : TimeZone.getAvailableIDs()) {
+                if (getRegion(id) != null) {
+                    addIfNewRules(zones, TimeZone.getTimeZone(id));
+                }
+            }
+        }
+        if (preferredId != null && !seen.contains(preferredId)) {
+            // A legacy id like "America/Buenos_Aires" is found through its canonical zone
+            addIfNewRules(zones, TimeZone.getTimeZone(preferredId));
+        }
+        return sortZones(zones, date);
+    }
+
+    /**
+     * "America/Argentina/Buenos_Aires" becomes "Buenos Aires".
+     */
+    public static String getCityName(String id) {
+        return id.substring(id.lastIndexOf('/') + 1).replace('_', ' ');
+    }
+
+    /**
+     * Don't run on UI thread, this reads the platform's zones by country.
+     *
+     * @param country Lower case iso code, or null for every country.
+     * @return The canonical zone ids, the country's main zone first.
+     */
+    public static List<String> getCountryZoneIds(String country) {
+        final List<String> ids = new ArrayList<String>();
+        final XmlResourceParser parser = Resources.getSystem().getXml(
+                com.android.internal.R.xml.time_zones_by_country);
+        try {
+            XmlUtils.beginDocument(parser, XMLTAG_TIMEZONES);
+            while (true) {
+                XmlUtils.nextElement(parser);
+                if (!XMLTAG_TIMEZONE.equals(parser.getName())) {
+                    break;
+                }
+                if (country == null
+                        || country.equals(parser.getAttributeValue(null, XMLATTR_CODE))) {
+                    ids.add(parser.nextText());
+                }
+            }
+        } catch (XmlPullParserException e) {
+            Log.e(TAG, "Ill-formatted time zones by country", e);
+        } catch (IOException e) {
+            Log.e(TAG, "Unable to read time zones by country", e);
+        } finally {
+            parser.close();
+        }
+        return ids;
+    }
+
+    private static void addIfNewRules(List<TimeZone> zones, TimeZone tz) {
+        for (TimeZone zone : zones) {
+            if (zone.hasSameRules(tz)) {
+                return;
+            }
+        }
+        zones.add(tz);
+    }
+
+    private static List<TimeZone> sortZones(List<TimeZone> zones, long date) {
+        // Offsets and names are worked out once, not on every comparison
+        final List<SortKey> keys = new ArrayList<SortKey>(zones.size());
+        for (TimeZone zone : zones) {
+            keys.add(new SortKey(zone, zone.getOffset(date), getCityName(zone.getID())));
+        }
+        Collections.sort(keys, new Comparator<SortKey>() {
+            @Override
+            public int compare(SortKey key1, SortKey key2) {
+                if (key1.mOffset != key2.mOffset) {
+                    return key1.mOffset < key2.mOffset ? -1 : 1;
+                }
+                return key1.mCityName.compareTo(key2.mCityName);
+            }
+        });
+        final List<TimeZone> sorted = new ArrayList<TimeZone>(keys.size());
+        for (SortKey key : keys) {
+            sorted.add(key.mZone);
+        }
+        return sorted;
+    }
+
+    private static String getRegion(String id) {
+        final int slash = id.indexOf('/');
+        if (slash <= 0) {
+            return null;
+        }
+        final String region = id.substring(0, slash);
+        for (String r : REGIONS) {
+            if (r.equals(region)) {
+                return region;
+            }
+        }
+        return null;
+    }
+
+    private static class SortKey {
+        private final TimeZone mZone;
+        private final int mOffset;
+        private final String mCityName;
+
+        public SortKey(TimeZone zone, int offset, String cityName) {
+            mZone = zone;
+            mOffset = offset;
+            mCityName = cityName;
+        }
+    }
+}
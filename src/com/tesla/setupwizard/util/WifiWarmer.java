@@ -0,0 +1,189 @@
+/*
+ * Copyright (C) 2015 The Tesla OS
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tesla.setupwizard.util;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.net.wifi.WifiManager;
+import android.os.AsyncTask;
+import android.os.Handler;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.tesla.setupwizard.R;
+import com.tesla.setupwizard.SetupWizardApp;
+
+/**
+ * Turns wifi on and starts a scan when setup starts, so the radio is up and the
+ * wifi picker has networks to show by the time the user gets there.
+ */
+public class WifiWarmer {
+
+    private static final String TAG = WifiWarmer.class.getSimpleName();
+
+    // Wifi that isn't up by then was refused, by airplane mode or policy
+    private static final int ENABLE_TIMEOUT_MS = 30 * 1000;
+    private static final int FIRST_SCAN_TIMEOUT_MS = 60 * 1000;
+
+    // Only touched on the main thread
+    private static boolean sStarted;
+    private static boolean sStopped;
+    private static long sStartTime;
+    private static Context sContext;
+    private static Handler sHandler;
+    private static WifiEnabledReceiver sWifiEnabledReceiver;
+    private static FirstScanReceiver sFirstScanReceiver;
+
+    private static final Runnable sEnableTimeoutRunnable = new Runnable() {
+        @Override
+        public void run() {
+            if (SetupWizardApp.DEBUG && sWifiEnabledReceiver != null) {
+                Log.d(TAG, "Wifi not enabled after " + ENABLE_TIMEOUT_MS + "ms, giving up");
+            }
+            unregisterWifiEnabledReceiver();
+        }
+    };
+
+    private static final Runnable sFirstScanTimeoutRunnable = new Runnable() {
+        @Override
+        public void run() {
+            if (SetupWizardApp.DEBUG && sFirstScanReceiver != null) {
+                Log.d(TAG, "No scan results after " + FIRST_SCAN_TIMEOUT_MS + "ms");
+            }
+            unregisterFirstScanReceiver();
+        }
+    };
+
+    private WifiWarmer(){}
+
+    /**
+     * Does nothing on devices without wifi or after the first call. Call on the main thread.
+     */
+    public static void start(Context context) {
+        if (sStarted || !SetupWizardUtils.hasWifi(context)) {
+            return;
+        }
+        sStarted = true;
+        sStartTime = SystemClock.elapsedRealtime();
+        sContext = context.getApplicationContext();
+        sHandler = new Handler();
+        final boolean warm = sContext.getResources().getBoolean(R.bool.warm_wifi_on_start);
+        if (SetupWizardApp.DEBUG) {
+            // Logged either way, to compare the wait with and without warming
+            sFirstScanReceiver = new FirstScanReceiver(warm);
+            sContext.registerReceiver(sFirstScanReceiver,
+                    new IntentFilter(WifiManager.SCAN_RESULTS_AVAILABLE_ACTION));
+            sHandler.postDelayed(sFirstScanTimeoutRunnable, FIRST_SCAN_TIMEOUT_MS);
+        }
+        if (warm) {
+            new WarmWifiTask(sContext).executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
+        }
+    }
+
+    /**
+     * Stops waiting on wifi, called when setup finishes. Call on the main thread.
+     */
+    public static void stop() {
+        sStopped = true;
+        unregisterWifiEnabledReceiver();
+        unregisterFirstScanReceiver();
+    }
+
+    private static void unregisterWifiEnabledReceiver() {
+        if (sWifiEnabledReceiver != null) {
+            sContext.unregisterReceiver(sWifiEnabledReceiver);
+            sWifiEnabledReceiver = null;
+            sHandler.removeCallbacks(sEnableTimeoutRunnable);
+        }
+    }
+
+    private static void unregisterFirstScanReceiver() {
+        if (sFirstScanReceiver != null) {
+            sContext.unregisterReceiver(sFirstScanReceiver);
+            sFirstScanReceiver = null;
+            sHandler.removeCallbacks(sFirstScanTimeoutRunnable);
+        }
+    }
+
+    private static class WarmWifiTask extends AsyncTask<Void, Void, Boolean> {
+        private final Context mContext;
+
+        public WarmWifiTask(Context context) {
+            mContext = context;
+        }
+
+        @Override
+        protected Boolean doInBackground(Void... params) {
+            final WifiManager wifiManager =
+                    (WifiManager) mContext.getSystemService(Context.WIFI_SERVICE);
+            if (wifiManager.isWifiEnabled()) {
+                wifiManager.startScan();
+                return true;
+            }
+            wifiManager.setWifiEnabled(true);
+            return false;
+        }
+
+        @Override
+        protected void onPostExecute(Boolean scanning) {
+            if (!scanning && !sStopped && sWifiEnabledReceiver == null) {
+                // Scans are refused until the radio is up
+                sWifiEnabledReceiver = new WifiEnabledReceiver();
+                mContext.registerReceiver(sWifiEnabledReceiver,
+                        new IntentFilter(WifiManager.WIFI_STATE_CHANGED_ACTION));
+                sHandler.postDelayed(sEnableTimeoutRunnable, ENABLE_TIMEOUT_MS);
+            }
+        }
+    }
+
+    private static class WifiEnabledReceiver extends BroadcastReceiver {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            final int state = intent.getIntExtra(WifiManager.EXTRA_WIFI_STATE,
+                    WifiManager.WIFI_STATE_UNKNOWN);
+            if (state != WifiManager.WIFI_STATE_ENABLED || sWifiEnabledReceiver != this) {
+                return;
+            }
+            unregisterWifiEnabledReceiver();
+            ((WifiManager) context.getSystemService(Context.WIFI_SERVICE)).startScan();
+            if (SetupWizardApp.DEBUG) {
+                Log.d(TAG, "Wifi enabled after "
+                        + (SystemClock.elapsedRealtime() - sStartTime) + "ms, scanning");
+            }
+        }
+    }
+
+    private static class FirstScanReceiver extends BroadcastReceiver {
+        private final boolean mWarm;
+
+        public FirstScanReceiver(boolean warm) {
+            mWarm = warm;
+        }
+
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            if (sFirstScanReceiver != this) {
+                return;
+            }
+            unregisterFirstScanReceiver();
+            Log.d(TAG, "First scan results " + (SystemClock.elapsedRealtime() - sStartTime)
+                    + "ms after start, " + (mWarm ? "warmed" : "not warmed"));
+        }
+    }
+}